@@ -0,0 +1,212 @@
+// The MIT License (MIT)
+// Copyright © 2015 AppsLandia. All rights reserved.
+
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+
+// The above copyright notice and this permission notice shall be included in all
+// copies or substantial portions of the Software.
+
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+
+package com.appslandia.jspprocessor.impl;
+
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.function.ToLongFunction;
+import java.util.regex.Pattern;
+
+/**
+ * Thread-safe state shared by {@link JspProcessor} runs: the layout, properties and inlined file caches and the variable holder patterns.
+ *
+ * <p>
+ * Other compiled patterns are constants of {@link JspProcessor}, so a processor only holds its options and creating one per run, per __jsp root or per thread costs
+ * nothing. Processors given the same engine share the cached files; a processor without an engine creates its own.
+ * </p>
+ *
+ * @author <a href="mailto:haducloc13@gmail.com">Loc Ha</a>
+ *
+ */
+public class JspEngine {
+
+	public static final int DEFAULT_CACHE_MAX_SIZE = 16 * 1024 * 1024;
+	public static final int HOLDER_PATTERNS_MAX_SIZE = 1024;
+
+	final int cacheMaxSize;
+
+	// Caches are validated by lastModified so a long-lived engine sees edited layouts
+	// Files are cached per charset: processors of one engine can use different page encodings
+	// Each cache holds at most cacheMaxSize (estimated) bytes, least recently used files are evicted first
+	// Files are loaded outside the cache lock: threads asking for the same file wait for one load, other files aren't blocked
+
+	final FileCache<List<String>> sourceCache = new FileCache<>(lines -> lines.stream().mapToLong(l -> 40 + 2L * l.length()).sum());
+	final FileCache<Properties> propsCache = new FileCache<>(props -> props.entrySet().stream().mapToLong(e -> 80 + 2L * (e.getKey().toString().length() + e.getValue().toString().length())).sum());
+	final FileCache<String> inlineCache = new FileCache<>(content -> 40 + 2L * content.length());
+
+	// @{name} and @(name) patterns by variable name, least recently used names are evicted first
+	final Map<String, Pattern[]> holderPatterns = new LinkedHashMap<String, Pattern[]>(16, 0.75f, true) {
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String, Pattern[]> eldest) {
+			return size() > HOLDER_PATTERNS_MAX_SIZE;
+		}
+	};
+
+	public JspEngine() {
+		this(DEFAULT_CACHE_MAX_SIZE);
+	}
+
+	public JspEngine(int cacheMaxSize) {
+		this.cacheMaxSize = cacheMaxSize;
+	}
+
+	public int getCacheMaxSize() {
+		return this.cacheMaxSize;
+	}
+
+	Pattern[] getHolderPatterns(String name) {
+		synchronized (this.holderPatterns) {
+			return this.holderPatterns.computeIfAbsent(name, JspProcessor::toHolderPatterns);
+		}
+	}
+
+	<T> T loadCached(FileCache<T> cache, Path path, Charset cs, CacheLoader<T> loader) throws Exception {
+		CacheKey key = new CacheKey(path.toAbsolutePath().normalize(), cs);
+		FileTime lastModified = Files.getLastModifiedTime(key.path);
+
+		CacheEntry<T> entry = null;
+		boolean load = false;
+		synchronized (cache) {
+			entry = cache.get(key);
+			if ((entry == null) || !entry.lastModified.equals(lastModified)) {
+				entry = new CacheEntry<>(lastModified, new FutureTask<>(() -> loader.load(key.path, cs)));
+				CacheEntry<T> old = cache.put(key, entry);
+				if (old != null) {
+					cache.size -= old.size;
+				}
+				load = true;
+			}
+		}
+		if (load) {
+			entry.value.run();
+		}
+
+		T value = null;
+		try {
+			value = entry.value.get();
+		} catch (ExecutionException ex) {
+			// Failed loads aren't cached
+			synchronized (cache) {
+				cache.remove(key, entry);
+			}
+			if (ex.getCause() instanceof Error) {
+				throw (Error) ex.getCause();
+			}
+			throw (Exception) ex.getCause();
+		}
+
+		if (load) {
+			synchronized (cache) {
+				// Still cached (not evicted or replaced)?
+				if (cache.entries.get(key) == entry) {
+					entry.size = cache.weigher.applyAsLong(value);
+					cache.size += entry.size;
+					cache.evict(this.cacheMaxSize);
+				}
+			}
+		}
+		return value;
+	}
+
+	static class FileCache<T> {
+		final Map<CacheKey, CacheEntry<T>> entries = new LinkedHashMap<>(16, 0.75f, true);
+		final ToLongFunction<T> weigher;
+		long size;
+
+		FileCache(ToLongFunction<T> weigher) {
+			this.weigher = weigher;
+		}
+
+		CacheEntry<T> get(CacheKey key) {
+			return this.entries.get(key);
+		}
+
+		CacheEntry<T> put(CacheKey key, CacheEntry<T> entry) {
+			return this.entries.put(key, entry);
+		}
+
+		void remove(CacheKey key, CacheEntry<T> entry) {
+			if (this.entries.remove(key, entry)) {
+				this.size -= entry.size;
+			}
+		}
+
+		void evict(long maxSize) {
+			Iterator<CacheEntry<T>> iter = this.entries.values().iterator();
+			while ((this.size > maxSize) && iter.hasNext()) {
+				this.size -= iter.next().size;
+				iter.remove();
+			}
+		}
+	}
+
+	interface CacheLoader<T> {
+		T load(Path path, Charset cs) throws Exception;
+	}
+
+	static class CacheKey {
+		final Path path;
+		final Charset charset;
+
+		CacheKey(Path path, Charset charset) {
+			this.path = path;
+			this.charset = charset;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (!(obj instanceof CacheKey)) {
+				return false;
+			}
+			CacheKey key = (CacheKey) obj;
+			return this.path.equals(key.path) && this.charset.equals(key.charset);
+		}
+
+		@Override
+		public int hashCode() {
+			return 31 * this.path.hashCode() + this.charset.hashCode();
+		}
+	}
+
+	static class CacheEntry<T> {
+		final FileTime lastModified;
+		final FutureTask<T> value;
+
+		// Set once loaded
+		long size;
+
+		CacheEntry(FileTime lastModified, FutureTask<T> value) {
+			this.lastModified = lastModified;
+			this.value = value;
+		}
+	}
+}
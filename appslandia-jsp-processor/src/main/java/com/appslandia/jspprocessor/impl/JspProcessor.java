@@ -0,0 +1,2086 @@
+// The MIT License (MIT)
+// Copyright © 2015 AppsLandia. All rights reserved.
+
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+
+// The above copyright notice and this permission notice shall be included in all
+// copies or substantial portions of the Software.
+
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+
+package com.appslandia.jspprocessor.impl;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.lang.management.ManagementFactory;
+import java.net.URLEncoder;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Properties;
+import java.util.Queue;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPOutputStream;
+
+import com.appslandia.jspprocessor.utils.AssertUtils;
+import com.appslandia.jspprocessor.utils.DigestUtils;
+import com.appslandia.jspprocessor.utils.FileNameUtils;
+import com.appslandia.jspprocessor.utils.Jdk8FileUtils;
+import com.appslandia.jspprocessor.utils.StringUtils;
+import com.appslandia.jspprocessor.utils.ValueUtils;
+
+/**
+ *
+ * @author <a href="mailto:haducloc13@gmail.com">Loc Ha</a>
+ *
+ */
+public class JspProcessor {
+
+	final File appDir;
+	final String configDirName = "__config";
+
+	private String jspDir = "/WEB-INF/__jsp";
+	private boolean minimize;
+	private String genDirName = "jsp";
+	private boolean keepPrevious;
+
+	private boolean manifest;
+	private String hitCountsFile;
+
+	private boolean gzip;
+	private int gzipMinSize = 1024;
+	private String gzipTypes = "css,js,svg,html,htm,txt,json,xml";
+	private String gzipCacheDir;
+
+	private int methodSizeWarn = MethodSizeEstimator.HUGE_METHOD_LIMIT;
+	private int methodSizeLimit = MethodSizeEstimator.CODE_SIZE_LIMIT;
+	private boolean splitLargeMethods;
+	private boolean mappedFile = true;
+
+	private boolean shareSections;
+	private int sharedSectionMinSize = 256;
+
+	private boolean sharedLayouts;
+
+	private int inlineMaxSize;
+
+	private boolean assetVersioning;
+	private String assetTypes = "css,js,png,jpg,jpeg,gif,svg,webp,ico,woff,woff2,ttf";
+
+	private final List<JspVariant> variants = new ArrayList<>();
+
+	private int maxInFlightPages;
+	private int cacheMaxSize = JspEngine.DEFAULT_CACHE_MAX_SIZE;
+	private volatile JspEngine engine;
+	private final AtomicLong peakHeap = new AtomicLong();
+
+	private JspLogger logger = JspLogger.NONE;
+
+	final boolean session = false;
+	final boolean trimDirectiveWhitespaces = true;
+	private Charset charset;
+
+	public JspProcessor(String appDir) {
+		AssertUtils.assertNotNull(appDir);
+		this.appDir = new File(appDir);
+		AssertUtils.assertTrue(this.appDir.exists() && this.appDir.isDirectory(), "appDir is invalid.");
+	}
+
+	public JspProcessor minimize(boolean minimize) {
+		this.minimize = minimize;
+		return this;
+	}
+
+	public JspProcessor pageEncoding(String pageEncoding) {
+		pageEncoding = StringUtils.trimToNull(pageEncoding);
+		if (pageEncoding != null) {
+			this.charset = Charset.forName(pageEncoding);
+		}
+		return this;
+	}
+
+	public JspProcessor jspDir(String jspDir) {
+		this.jspDir = StringUtils.trimToNull(jspDir);
+		return this;
+	}
+
+	public JspProcessor genDirName(String genDirName) {
+		this.genDirName = StringUtils.trimToNull(genDirName);
+		return this;
+	}
+
+	public JspProcessor keepPrevious(boolean keepPrevious) {
+		this.keepPrevious = keepPrevious;
+		return this;
+	}
+
+	public JspProcessor manifest(boolean manifest) {
+		this.manifest = manifest;
+		return this;
+	}
+
+	public JspProcessor hitCountsFile(String hitCountsFile) {
+		this.hitCountsFile = StringUtils.trimToNull(hitCountsFile);
+		return this;
+	}
+
+	public JspProcessor gzip(boolean gzip) {
+		this.gzip = gzip;
+		return this;
+	}
+
+	public JspProcessor gzipMinSize(int gzipMinSize) {
+		this.gzipMinSize = gzipMinSize;
+		return this;
+	}
+
+	public JspProcessor gzipTypes(String gzipTypes) {
+		this.gzipTypes = StringUtils.trimToNull(gzipTypes);
+		return this;
+	}
+
+	public JspProcessor gzipCacheDir(String gzipCacheDir) {
+		this.gzipCacheDir = StringUtils.trimToNull(gzipCacheDir);
+		return this;
+	}
+
+	public JspProcessor methodSizeWarn(int methodSizeWarn) {
+		this.methodSizeWarn = methodSizeWarn;
+		return this;
+	}
+
+	public JspProcessor methodSizeLimit(int methodSizeLimit) {
+		this.methodSizeLimit = methodSizeLimit;
+		return this;
+	}
+
+	public JspProcessor splitLargeMethods(boolean splitLargeMethods) {
+		this.splitLargeMethods = splitLargeMethods;
+		return this;
+	}
+
+	public JspProcessor mappedFile(boolean mappedFile) {
+		this.mappedFile = mappedFile;
+		return this;
+	}
+
+	public JspProcessor shareSections(boolean shareSections) {
+		this.shareSections = shareSections;
+		return this;
+	}
+
+	public JspProcessor sharedSectionMinSize(int sharedSectionMinSize) {
+		this.sharedSectionMinSize = sharedSectionMinSize;
+		return this;
+	}
+
+	public JspProcessor sharedLayouts(boolean sharedLayouts) {
+		this.sharedLayouts = sharedLayouts;
+		return this;
+	}
+
+	public JspProcessor inlineMaxSize(int inlineMaxSize) {
+		this.inlineMaxSize = inlineMaxSize;
+		return this;
+	}
+
+	public JspProcessor assetVersioning(boolean assetVersioning) {
+		this.assetVersioning = assetVersioning;
+		return this;
+	}
+
+	public JspProcessor assetTypes(String assetTypes) {
+		this.assetTypes = StringUtils.trimToNull(assetTypes);
+		return this;
+	}
+
+	public JspProcessor variant(JspVariant variant) {
+		this.variants.add(AssertUtils.assertNotNull(variant));
+		return this;
+	}
+
+	public JspProcessor maxInFlightPages(int maxInFlightPages) {
+		this.maxInFlightPages = maxInFlightPages;
+		return this;
+	}
+
+	public JspProcessor cacheMaxSize(int cacheMaxSize) {
+		this.cacheMaxSize = cacheMaxSize;
+		return this;
+	}
+
+	public JspProcessor engine(JspEngine engine) {
+		this.engine = AssertUtils.assertNotNull(engine);
+		return this;
+	}
+
+	public JspProcessor logger(JspLogger logger) {
+		this.logger = AssertUtils.assertNotNull(logger);
+		return this;
+	}
+
+	// No shared engine -> own engine with cacheMaxSize
+
+	JspEngine getEngine() {
+		JspEngine engine = this.engine;
+		if (engine == null) {
+			synchronized (this) {
+				if ((engine = this.engine) == null) {
+					this.engine = engine = new JspEngine(this.cacheMaxSize);
+				}
+			}
+		}
+		return engine;
+	}
+
+	public void process() throws Exception {
+		AssertUtils.assertNotNull(this.jspDir);
+		AssertUtils.assertNotNull(this.genDirName);
+
+		// Hit counts
+		Properties hitCounts = new Properties();
+		if (this.manifest && (this.hitCountsFile != null)) {
+			try (Reader r = Files.newBufferedReader(new File(this.hitCountsFile).toPath(), StandardCharsets.UTF_8)) {
+				hitCounts.load(r);
+			}
+		}
+
+		this.peakHeap.set(0);
+
+		// Static assets
+		Map<String, String> assetVersions = this.assetVersioning ? hashAppAssets() : null;
+
+		for (Path jspPath : findJspPaths()) {
+			List<JspOutput> outputs = newOutputs(jspPath);
+
+			// Generate into staging
+			for (JspOutput output : outputs) {
+				if (output.stagingPath.toFile().exists()) {
+					Jdk8FileUtils.deleteRecursively(output.stagingPath);
+				}
+			}
+			try {
+				processJspDir(jspPath, jspPath.resolve(this.configDirName), outputs);
+
+				for (JspOutput output : outputs) {
+					if (assetVersions != null) {
+						versionAssets(output, assetVersions);
+					}
+					if (this.manifest) {
+						saveManifest(output.pages, hitCounts, output.stagingPath.resolve(MANIFEST_FILE_NAME));
+					}
+				}
+			} catch (Exception ex) {
+				// Don't leave staging directories in the packaged tree
+				for (JspOutput output : outputs) {
+					if (output.stagingPath.toFile().exists()) {
+						Jdk8FileUtils.deleteRecursively(output.stagingPath);
+					}
+				}
+				throw ex;
+			}
+
+			for (JspOutput output : outputs) {
+				// Swap generations
+				swapDirs(output.stagingPath, output.genPath, output.previousPath);
+
+				// The previous tree would be packaged and compiled too
+				if (!this.keepPrevious && output.previousPath.toFile().exists()) {
+					Jdk8FileUtils.deleteRecursively(output.previousPath);
+				}
+
+				if (output.variantName != null) {
+					this.logger.info("Variant generated (variant=" + output.variantName + ", pages=" + output.pageCount + ", genDir=" + output.genPath + ")");
+				}
+			}
+		}
+		this.logger.info("Peak heap (used=" + toMegabytes(this.peakHeap.get()) + "MB, max=" + toMegabytes(Runtime.getRuntime().maxMemory()) + "MB)");
+	}
+
+	List<JspOutput> newOutputs(Path jspPath) throws Exception {
+		List<JspOutput> outputs = new ArrayList<>();
+		if (this.variants.isEmpty()) {
+			outputs.add(new JspOutput(null, new Properties(), jspPath.getParent(), this.genDirName));
+			return outputs;
+		}
+
+		JspVariant.assertNames(this.variants);
+		for (JspVariant variant : this.variants) {
+			String genDirName = ValueUtils.valueOrAlt(StringUtils.trimToNull(variant.getGenDirName()), this.genDirName + "_" + variant.getName());
+
+			Properties overlay = new Properties();
+			if (StringUtils.trimToNull(variant.getProperties()) != null) {
+				overlay = loadProperties(jspPath.resolve(this.configDirName).resolve(variant.getProperties().trim()));
+			}
+			outputs.add(new JspOutput(variant.getName(), overlay, jspPath.getParent(), genDirName));
+		}
+		return outputs;
+	}
+
+	public void rollback() throws Exception {
+		AssertUtils.assertNotNull(this.jspDir);
+		AssertUtils.assertNotNull(this.genDirName);
+
+		for (Path jspPath : findJspPaths()) {
+			for (JspOutput output : newOutputs(jspPath)) {
+				if (!output.previousPath.toFile().exists()) {
+					throw new IllegalArgumentException("Previous generation is required, see keepPrevious (genDir=" + output.genPath + ")");
+				}
+				if (output.stagingPath.toFile().exists()) {
+					Jdk8FileUtils.deleteRecursively(output.stagingPath);
+				}
+				swapDirs(output.previousPath, output.genPath, output.stagingPath);
+				Files.move(output.stagingPath, output.previousPath, StandardCopyOption.ATOMIC_MOVE);
+			}
+		}
+	}
+
+	List<Path> findJspPaths() throws Exception {
+		List<Path> jspPaths = new ArrayList<>();
+		Queue<File> q = new LinkedList<>();
+		q.add(this.appDir);
+
+		while (!q.isEmpty()) {
+			File file = q.remove();
+			if (file.toPath().toUri().toURL().getPath().endsWith(this.jspDir + "/")) {
+				jspPaths.add(file.toPath());
+			} else {
+				Arrays.stream(file.listFiles()).filter(f -> f.isDirectory()).forEach(f -> q.add(f));
+			}
+		}
+		return jspPaths;
+	}
+
+	// jsp -> jsp.prev, jsp.staging -> jsp
+	// Readers see the old or the new complete tree, except for the short window between the two renames where jsp is missing
+	// If the second rename fails, jsp.prev is moved back
+
+	public static final String STAGING_DIR_SUFFIX = ".staging";
+	public static final String PREVIOUS_DIR_SUFFIX = ".prev";
+
+	static void swapDirs(Path newPath, Path targetPath, Path previousPath) throws Exception {
+		if (!targetPath.toFile().exists()) {
+			Files.move(newPath, targetPath, StandardCopyOption.ATOMIC_MOVE);
+			return;
+		}
+		if (previousPath.toFile().exists()) {
+			Jdk8FileUtils.deleteRecursively(previousPath);
+		}
+		Files.move(targetPath, previousPath, StandardCopyOption.ATOMIC_MOVE);
+		try {
+			Files.move(newPath, targetPath, StandardCopyOption.ATOMIC_MOVE);
+
+		} catch (IOException | RuntimeException ex) {
+			// Restore the live tree
+			try {
+				Files.move(previousPath, targetPath, StandardCopyOption.ATOMIC_MOVE);
+			} catch (IOException | RuntimeException rex) {
+				ex.addSuppressed(rex);
+			}
+			throw ex;
+		}
+	}
+
+	// Each page is read and parsed once, then rendered for every output (variant) in parallel
+	// maxInFlightPages > 1: pages are processed concurrently, at most maxInFlightPages are held in memory at a time
+	// Held for the whole __jsp root: parsed layouts and shared layouts (one per layout), page entries (manifest only)
+
+	void processJspDir(Path jspPath, Path configPath, List<JspOutput> outputs) throws Exception {
+		Charset cs = ValueUtils.valueOrAlt(this.charset, StandardCharsets.UTF_8);
+		Map<Path, List<Path>> gzipFiles = new LinkedHashMap<>();
+		Map<String, JspModel> parsedLayouts = new HashMap<>();
+
+		// Page entries are collected in walk order so manifests don't depend on scheduling
+		// No manifest -> Pages are only counted
+		List<PageEntry[]> pageEntries = new ArrayList<>();
+		List<Future<?>> pageTasks = new ArrayList<>();
+
+		ExecutorService executor = null;
+		Semaphore inFlight = null;
+		if (this.maxInFlightPages > 1) {
+			executor = Executors.newFixedThreadPool(Math.min(this.maxInFlightPages, Runtime.getRuntime().availableProcessors()));
+			inFlight = new Semaphore(this.maxInFlightPages);
+		}
+
+		Map<String, List<String>> sharedBodies = this.shareSections ? fingerprintSections(jspPath, configPath, cs) : null;
+		for (JspOutput output : outputs) {
+			if (sharedBodies != null) {
+				output.sharedSections = new SharedSections(cs, sharedBodies, toWebPath(output.genPath.resolve(SHARED_DIR_NAME)));
+			}
+		}
+
+		try {
+			Queue<File> q = new LinkedList<>();
+			q.add(jspPath.toFile());
+
+			while (!q.isEmpty()) {
+				File file = q.remove();
+				if (file.equals(configPath.toFile()) || isOutputDir(file, outputs)) {
+					continue;
+				}
+				if (file.isDirectory()) {
+					Arrays.stream(file.listFiles()).forEach(f -> q.add(f));
+					continue;
+				}
+				if (!file.isFile()) {
+					continue;
+				}
+				Path relativePath = jspPath.relativize(file.toPath());
+				for (JspOutput output : outputs) {
+					Files.createDirectories(output.stagingPath.resolve(relativePath).getParent());
+				}
+
+				// JSP file?
+				if (file.getName().toLowerCase(Locale.ENGLISH).endsWith(".jsp")) {
+					outputs.forEach(o -> o.pageCount++);
+					PageEntry[] entries = null;
+					if (this.manifest) {
+						entries = new PageEntry[outputs.size()];
+						pageEntries.add(entries);
+					}
+
+					if (executor == null) {
+						processPage(file.toPath(), relativePath, outputs, entries, parsedLayouts, configPath, cs);
+						samplePeakHeap();
+						continue;
+					}
+
+					// Blocks while maxInFlightPages pages are being processed
+					final Semaphore permits = inFlight;
+					final PageEntry[] pageEntry = entries;
+					permits.acquire();
+					try {
+						pageTasks.add(executor.submit(() -> {
+							try {
+								processPage(file.toPath(), relativePath, outputs, pageEntry, parsedLayouts, configPath, cs);
+								samplePeakHeap();
+								return null;
+							} finally {
+								permits.release();
+							}
+						}));
+					} catch (RuntimeException ex) {
+						permits.release();
+						throw ex;
+					}
+				} else {
+					// Not JSP file -> Copy directly
+					List<Path> targetFilePaths = new ArrayList<>();
+					for (JspOutput output : outputs) {
+						Path targetFilePath = output.stagingPath.resolve(relativePath);
+						Files.copy(file.toPath(), targetFilePath, StandardCopyOption.REPLACE_EXISTING);
+						targetFilePaths.add(targetFilePath);
+					}
+
+					if (this.gzip && isGzipFile(file)) {
+						gzipFiles.put(file.toPath(), targetFilePaths);
+					}
+				}
+			}
+
+			// Wait for pages
+			for (Future<?> pageTask : pageTasks) {
+				try {
+					pageTask.get();
+				} catch (ExecutionException ex) {
+					if (ex.getCause() instanceof Exception) {
+						throw (Exception) ex.getCause();
+					}
+					throw ex;
+				}
+			}
+		} finally {
+			if (executor != null) {
+				executor.shutdownNow();
+			}
+		}
+
+		for (PageEntry[] entries : pageEntries) {
+			for (int i = 0; i < entries.length; i++) {
+				outputs.get(i).pages.add(entries[i]);
+			}
+		}
+
+		// Shared sections
+		for (JspOutput output : outputs) {
+			if (output.sharedSections != null) {
+				saveSharedSections(output.sharedSections, output.genPath, output.stagingPath, cs);
+				output.sharedSections = null;
+			}
+			output.sharedLayouts.clear();
+		}
+
+		// Pre-compress assets
+		gzipFiles.entrySet().parallelStream().forEach(e -> {
+			try {
+				gzipFile(e.getKey(), e.getValue());
+			} catch (IOException ex) {
+				throw new UncheckedIOException(ex);
+			}
+		});
+	}
+
+	void processPage(Path filePath, Path relativePath, List<JspOutput> outputs, PageEntry[] entries, Map<String, JspModel> parsedLayouts, Path configPath,
+			Charset cs) throws Exception {
+		// Parse once
+		JspModel parsed = new JspModel();
+		parsed.jspName = filePath.getFileName().toString();
+		parsed.jspSource = loadSource(filePath, cs, false);
+
+		parseVariables(parsed.jspName, parsed.jspSource, parsed.jspVariables, configPath);
+		parseSections(parsed);
+
+		IntStream.range(0, outputs.size()).parallel().forEach(i -> {
+			try {
+				PageEntry entry = processJsp(parsed.copy(), outputs.get(i), parsedLayouts, configPath, relativePath, cs);
+				if (entries != null) {
+					entries[i] = entry;
+				}
+
+			} catch (RuntimeException ex) {
+				throw ex;
+			} catch (IOException ex) {
+				throw new UncheckedIOException(ex);
+			} catch (Exception ex) {
+				throw new IllegalStateException(ex.getMessage(), ex);
+			}
+		});
+	}
+
+	static boolean isOutputDir(File file, List<JspOutput> outputs) {
+		for (JspOutput output : outputs) {
+			if (file.equals(output.genPath.toFile()) || file.equals(output.stagingPath.toFile())) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	JspModel parseLayout(Map<String, JspModel> parsedLayouts, String layoutJspName, Path configPath, Charset cs) throws Exception {
+		synchronized (parsedLayouts) {
+			JspModel layout = parsedLayouts.get(layoutJspName);
+			if (layout == null) {
+				layout = new JspModel();
+				layout.layoutJspName = layoutJspName;
+				layout.layoutSource = loadSource(configPath.resolve(layoutJspName), cs, true);
+
+				parseVariables(layoutJspName, layout.layoutSource, layout.mergedVariables, configPath);
+				parsedLayouts.put(layoutJspName, layout);
+			}
+			return layout;
+		}
+	}
+
+	PageEntry processJsp(JspModel model, JspOutput output, Map<String, JspModel> parsedLayouts, Path configPath, Path relativePath, Charset cs) throws Exception {
+		Path genPath = output.genPath;
+		Path stagingPath = output.stagingPath;
+		Path targetFilePath = stagingPath.resolve(relativePath);
+
+		// Variant overlay
+		Map<String, String> jspVariables = model.jspVariables;
+		output.overlay.forEach((k, v) -> jspVariables.put((String) k, (String) v));
+		model.sharedSections = output.sharedSections;
+
+		// Layout source
+		String layoutName = getLayoutName(model.jspName, jspVariables);
+		if (layoutName != null) {
+			model.layoutJspName = layoutName + ".jsp";
+			model.includeJspName = FileNameUtils.insertExtra(model.jspName, "_inc");
+
+			JspModel layout = parseLayout(parsedLayouts, model.layoutJspName, configPath, cs);
+			model.layoutSource = new ArrayList<>(layout.layoutSource);
+			// Put one by one: putAll() presizes the map and changes its order, replaceVariables() depends on it
+			layout.mergedVariables.forEach(model.mergedVariables::put);
+		}
+
+		// Merge variables
+		jspVariables.entrySet().stream().forEach(e -> {
+			model.mergedVariables.put(e.getKey(), e.getValue());
+		});
+
+		// Shared layout?
+		if ((layoutName != null) && this.sharedLayouts) {
+			saveSharedLayoutPage(model, output.sharedLayouts, genPath, stagingPath, relativePath, cs);
+
+			return new PageEntry(toWebPath(genPath.resolve(relativePath)), toUnixPath(relativePath), layoutName);
+		}
+
+		// Replace sections
+		if (layoutName != null) {
+			replaceSections(model);
+		}
+
+		// Replace variables
+		if (layoutName != null) {
+			replaceVariables(model.layoutSource, model.mergedVariables);
+		}
+		replaceVariables(model.jspSource, model.mergedVariables);
+
+		// Inline assets
+		if (layoutName != null) {
+			inlineAssets(model.layoutSource);
+		}
+		inlineAssets(model.jspSource);
+
+		// Method size
+		checkMethodSize(model);
+
+		// Minimize sources?
+		if (this.minimize) {
+			if (layoutName != null) {
+				minimizeSource(model.layoutSource);
+			}
+			minimizeSource(model.jspSource);
+			model.fragments.values().forEach(f -> minimizeSource(f));
+		}
+
+		// Replace directives
+		if (layoutName != null) {
+			replacePageDirectives(model.layoutSource);
+		}
+		replacePageDirectives(model.jspSource);
+		model.fragments.values().forEach(f -> replacePageDirectives(f));
+
+		// Save fragments
+		for (Entry<String, List<String>> fragment : model.fragments.entrySet()) {
+			try (BufferedWriter out = Files.newBufferedWriter(targetFilePath.getParent().resolve(fragment.getKey()), cs)) {
+				saveSource(fragment.getValue(), out);
+			}
+		}
+
+		// Save sources
+		if (layoutName != null) {
+			Path bodyFilePath = targetFilePath.getParent().resolve(model.includeJspName);
+			try (BufferedWriter out = Files.newBufferedWriter(bodyFilePath, cs)) {
+				saveSource(model.jspSource, out);
+			}
+			try (BufferedWriter out = Files.newBufferedWriter(targetFilePath, cs)) {
+				saveSource(model.layoutSource, out);
+			}
+		} else {
+			// No layout
+			try (BufferedWriter out = Files.newBufferedWriter(targetFilePath, cs)) {
+				saveSource(model.jspSource, out);
+			}
+		}
+		return new PageEntry(toWebPath(genPath.resolve(relativePath)), toUnixPath(relativePath), layoutName);
+	}
+
+	static class JspOutput {
+		final String variantName;
+		final Properties overlay;
+
+		final Path genPath;
+		final Path stagingPath;
+		final Path previousPath;
+
+		final List<PageEntry> pages = new ArrayList<>();
+		int pageCount;
+		final Map<String, SharedLayout> sharedLayouts = new HashMap<>();
+		SharedSections sharedSections;
+
+		JspOutput(String variantName, Properties overlay, Path parentPath, String genDirName) {
+			this.variantName = variantName;
+			this.overlay = overlay;
+			this.genPath = parentPath.resolve(genDirName);
+			this.stagingPath = parentPath.resolve(genDirName + STAGING_DIR_SUFFIX);
+			this.previousPath = parentPath.resolve(genDirName + PREVIOUS_DIR_SUFFIX);
+		}
+	}
+
+	// Shared layouts: __layouts/{layout}.jsp is generated once, pages include it with <jsp:param>
+	// The layout includes the page back for its body and defined sections: {page}?__part=__body, {page}?__part={section}
+	// A page compiles into one servlet holding its body and sections, a layout into one servlet for all its pages
+	// Generated code only uses implicit objects and java.lang, so it runs on javax.servlet and jakarta.servlet containers
+
+	public static final String LAYOUTS_DIR_NAME = "__layouts";
+	public static final String BODY_PART = "__body";
+
+	static final Pattern VAR_HOLDER_PATTERN = Pattern.compile("@\\{\\s*([^}\\s]+)\\s*}|@\\(\\s*([^)\\s]+)\\s*\\)");
+
+	// Request attribute of included requests (javax and jakarta)
+	static final String INCLUDED_CONDITION = "((request.getAttribute(\"javax.servlet.include.servlet_path\") != null) || (request.getAttribute(\"jakarta.servlet.include.servlet_path\") != null))";
+
+	SharedLayout saveSharedLayout(JspModel model, Path genPath, Path stagingPath, Charset cs) throws Exception {
+		SharedLayout layout = new SharedLayout();
+		layout.includePage = toWebPath(genPath.resolve(LAYOUTS_DIR_NAME).resolve(model.layoutJspName));
+
+		List<String> source = new ArrayList<>(model.layoutSource);
+		layout.taglibs.addAll(copyTaglibs(source));
+
+		// Page directives
+		for (int start = 0; start < source.size(); start++) {
+			if (START_PAGE_DIR_PATTERN.matcher(source.get(start)).matches()) {
+				int end = start;
+				while ((end < source.size()) && !END_DIR_PATTERN.matcher(source.get(end)).matches()) {
+					end++;
+				}
+				if (end < source.size()) {
+					layout.pageDirectives.add(toDirectiveSource(source, start, end).trim());
+					start = end;
+				}
+			}
+		}
+
+		// doBody
+		boolean doBody = false;
+		for (int i = 0; i < source.size(); i++) {
+			if (DO_BODY_PATTERN.matcher(source.get(i)).matches()) {
+				if (doBody) {
+					throw new IllegalArgumentException("@doBody is duplicated (layout=" + model.layoutJspName + ")");
+				}
+				String indents = copyIndents(source.get(i));
+				source.set(i, indents + "<!-- @doBody processed -->");
+				source.add(i + 1, indents + toPartInclude("__page", BODY_PART));
+				doBody = true;
+			}
+		}
+		if (!doBody) {
+			throw new IllegalArgumentException("@doBody is required (layout=" + model.layoutJspName + ")");
+		}
+
+		// Sections
+		for (int i = 0; i < source.size(); i++) {
+			String sectionLine = source.get(i);
+			if (!SECTION_PATTERN.matcher(sectionLine).matches()) {
+				continue;
+			}
+			String sectionName = sectionLine.substring(sectionLine.indexOf("@") + 1, sectionLine.indexOf("-->")).trim();
+			boolean sectionRequired = !sectionName.endsWith("?");
+			if (!sectionRequired) {
+				sectionName = sectionName.substring(0, sectionName.length() - 1);
+			}
+			layout.sections.put(sectionName, sectionRequired);
+			source.set(i, copyIndents(sectionLine) + toPartInclude("__section." + sectionName, sectionName));
+		}
+
+		// Variables
+		for (int i = 0; i < source.size(); i++) {
+			Matcher matcher = VAR_HOLDER_PATTERN.matcher(source.get(i));
+			StringBuffer sb = new StringBuffer();
+			while (matcher.find()) {
+				String name = ValueUtils.valueOrAlt(matcher.group(1), matcher.group(2));
+				layout.variables.add(name);
+				matcher.appendReplacement(sb, Matcher.quoteReplacement("${param['" + name + "']}"));
+			}
+			matcher.appendTail(sb);
+			source.set(i, sb.toString());
+		}
+
+		source.addAll(toDirectivesEnd(source), toLayoutGuard(toWebPath(genPath) + "/"));
+
+		inlineAssets(source);
+		if (this.minimize) {
+			minimizeSource(source);
+		}
+		replacePageDirectives(source);
+
+		Path layoutsPath = stagingPath.resolve(LAYOUTS_DIR_NAME);
+		Files.createDirectories(layoutsPath);
+		try (BufferedWriter out = Files.newBufferedWriter(layoutsPath.resolve(model.layoutJspName), cs)) {
+			saveSource(source, out);
+		}
+		return layout;
+	}
+
+	// The layout answers 404 to direct requests and only includes pages under the generated directory
+
+	static List<String> toLayoutGuard(String genDirPath) {
+		List<String> guard = new ArrayList<>();
+		guard.add("<%!");
+		guard.add("\tstatic String __includePath(String path, String part) {");
+		guard.add("\t\tif ((path == null) || path.isEmpty()) {");
+		guard.add("\t\t\treturn null;");
+		guard.add("\t\t}");
+		guard.add("\t\tif (!path.startsWith(" + toJavaString(genDirPath) + ") || path.contains(\"..\") || path.contains(\"\\\\\") || path.contains(\"%\") || path.contains(\";\") || path.contains(\"?\") || path.contains(\"#\")) {");
+		guard.add("\t\t\tthrow new IllegalStateException(\"Include page is not generated (path=\" + path + \")\");");
+		guard.add("\t\t}");
+		guard.add("\t\treturn path + \"?__part=\" + part;");
+		guard.add("\t}");
+		guard.add("%>");
+		guard.add("<%");
+		guard.add("\tif (!" + INCLUDED_CONDITION + ") {");
+		guard.add("\t\tresponse.sendError(404);");
+		guard.add("\t\treturn;");
+		guard.add("\t}");
+		guard.add("%>");
+		return guard;
+	}
+
+	static String toPartInclude(String paramName, String part) throws Exception {
+		return "<% { String __path = __includePath(request.getParameter(" + toJavaString(paramName) + "), " + toJavaString(URLEncoder.encode(part, "UTF-8"))
+				+ "); if (__path != null) { pageContext.include(__path, false); } } %>";
+	}
+
+	static String toJavaString(String value) {
+		return "\"" + value.replace("\\", "\\\\").replace("\"", "\\\"") + "\"";
+	}
+
+	static int toDirectivesEnd(List<String> source) {
+		int idx = 0;
+		while (idx < source.size()) {
+			String line = source.get(idx);
+			if (BLANK_LINE_PATTERN.matcher(line).matches()) {
+				idx++;
+				continue;
+			}
+			if (!line.trim().startsWith("<%@")) {
+				break;
+			}
+			while ((idx < source.size()) && !END_DIR_PATTERN.matcher(source.get(idx)).matches()) {
+				idx++;
+			}
+			idx++;
+		}
+		return Math.min(idx, source.size());
+	}
+
+	// The page renders the part requested by its layout, or includes the layout when requested itself
+	// Undefined optional sections get an empty value, shared sections are passed as their __shared page
+
+	void saveSharedLayoutPage(JspModel model, Map<String, SharedLayout> layouts, Path genPath, Path stagingPath, Path relativePath, Charset cs) throws Exception {
+		Path targetFilePath = stagingPath.resolve(relativePath);
+		String pagePath = toWebPath(genPath.resolve(relativePath));
+
+		SharedLayout layout = null;
+		synchronized (layouts) {
+			layout = layouts.get(model.layoutJspName);
+			if (layout == null) {
+				layout = saveSharedLayout(model, genPath, stagingPath, cs);
+				layouts.put(model.layoutJspName, layout);
+			}
+		}
+
+		List<String> page = new ArrayList<>(layout.pageDirectives);
+		page.addAll(layout.taglibs);
+		page.addAll(copyTaglibs(model.jspSource));
+		page.add("<%");
+		page.add("\tString __part = null;");
+		page.add("\tif (" + INCLUDED_CONDITION + " && " + toJavaString(pagePath) + ".equals(request.getParameter(\"__page\"))) {");
+		page.add("\t\t__part = request.getParameter(\"__part\");");
+		page.add("\t}");
+		page.add("\tif (__part == null) {");
+		page.add("%>");
+
+		// Layout
+		List<String> parts = new ArrayList<>();
+		page.add("<jsp:include page=\"" + layout.includePage + "\">");
+		page.add("\t<jsp:param name=\"__page\" value=\"" + pagePath + "\" />");
+		addPart(parts, BODY_PART, model.jspSource, model.mergedVariables);
+
+		// Sections
+		for (Entry<String, Boolean> section : layout.sections.entrySet()) {
+			List<String> sectionSource = model.sections.get(section.getKey());
+			String sectionPage = null;
+
+			if (sectionSource == null) {
+				if (section.getValue()) {
+					throw new IllegalArgumentException("@" + section.getKey() + " is required (jsp=" + model.jspName + ")");
+				}
+				sectionPage = "";
+			} else {
+				sectionPage = (model.sharedSections != null) ? model.sharedSections.toIncludePage(sectionSource) : null;
+				if (sectionPage == null) {
+					sectionPage = pagePath;
+					addPart(parts, section.getKey(), sectionSource, model.mergedVariables);
+				}
+			}
+			page.add("\t<jsp:param name=\"__section." + section.getKey() + "\" value=\"" + sectionPage + "\" />");
+		}
+
+		// Variables
+		for (String name : layout.variables) {
+			String value = "";
+			for (String key : model.mergedVariables.keySet()) {
+				if (key.equalsIgnoreCase(name)) {
+					// Rendered as the holder in a copied layout
+					List<String> holder = new ArrayList<>(Arrays.asList("@{" + name + "}"));
+					replaceVariables(holder, model.mergedVariables);
+					value = holder.get(0);
+					break;
+				}
+			}
+			if (value.contains("<%") || value.contains("%>")) {
+				throw new IllegalArgumentException("@{" + name + "} can't be passed to a shared layout (jsp=" + model.jspName + ")");
+			}
+			page.add("\t<jsp:param name=\"" + name + "\" value=\"" + value.replace("\\", "\\\\").replace("\"", "\\\"") + "\" />");
+		}
+		page.add("</jsp:include>");
+
+		page.addAll(parts);
+		page.add("<%");
+		page.add("\t}");
+		page.add("%>");
+
+		checkMethodSize(model.jspName, MethodSizeEstimator.estimateService(page, this.mappedFile));
+		if (this.minimize) {
+			minimizeSource(page);
+		}
+		replacePageDirectives(page);
+		try (BufferedWriter out = Files.newBufferedWriter(targetFilePath, cs)) {
+			saveSource(page, out);
+		}
+	}
+
+	void addPart(List<String> parts, String part, List<String> source, Map<String, String> variables) throws Exception {
+		List<String> partSource = new ArrayList<>(source);
+		replaceVariables(partSource, variables);
+		inlineAssets(partSource);
+
+		parts.add("<%");
+		parts.add("\t} else if (" + toJavaString(part) + ".equals(__part)) {");
+		parts.add("%>");
+		parts.addAll(partSource);
+	}
+
+	List<String> copyTaglibs(List<String> source) {
+		List<String> taglibs = new ArrayList<>();
+		for (String line : source) {
+			if (TAGLIB_DIR_PATTERN.matcher(line).matches()) {
+				taglibs.add(line.trim());
+			}
+		}
+		return taglibs;
+	}
+
+	static class SharedLayout {
+		String includePage;
+
+		final List<String> pageDirectives = new ArrayList<>();
+		final List<String> taglibs = new ArrayList<>();
+		final Map<String, Boolean> sections = new LinkedHashMap<>();
+		final Set<String> variables = new TreeSet<>(String.CASE_INSENSITIVE_ORDER);
+	}
+
+	// Section bodies repeated across pages -> __shared/{hash}.jsp, included by <jsp:include>
+	// Only static bodies are shared: included pages don't share page scope, taglibs and variables
+
+	public static final String SHARED_DIR_NAME = "__shared";
+
+	Map<String, List<String>> fingerprintSections(Path jspPath, Path configPath, Charset cs) throws Exception {
+		Map<String, List<String>> sharedBodies = new HashMap<>();
+		Map<String, Integer> counts = new HashMap<>();
+
+		List<Path> jspFiles = null;
+		try (Stream<Path> files = Files.walk(jspPath)) {
+			jspFiles = files.filter(p -> !p.startsWith(configPath) && p.getFileName().toString().toLowerCase(Locale.ENGLISH).endsWith(".jsp") && Files.isRegularFile(p))
+					.collect(Collectors.toList());
+		}
+		for (Path jspFile : jspFiles) {
+			JspModel model = new JspModel();
+			model.jspName = jspFile.getFileName().toString();
+			model.jspSource = loadSource(jspFile, cs, false);
+			parseSections(model);
+
+			for (List<String> body : model.sections.values()) {
+				if (!isStaticSection(body)) {
+					continue;
+				}
+				byte[] bytes = String.join("\n", body).getBytes(cs);
+				if (bytes.length < this.sharedSectionMinSize) {
+					continue;
+				}
+				String key = DigestUtils.sha256Hex(bytes).substring(0, 16);
+				if (counts.merge(key, 1, Integer::sum) == 2) {
+					sharedBodies.put(key, new ArrayList<>(body));
+				}
+			}
+		}
+		return sharedBodies;
+	}
+
+	// Scriptlets and expressions can span lines: the body is matched as a whole
+
+	static boolean isStaticSection(List<String> body) {
+		String source = String.join("\n", body);
+		if (MethodSizeEstimator.ELEMENT_PATTERN.matcher(source).find() || source.contains("<%") || source.contains("${") || source.contains("#{")) {
+			return false;
+		}
+		if (source.contains("@{") || source.contains("@(")) {
+			return false;
+		}
+		for (String line : body) {
+			if (SECTION_PATTERN.matcher(line).matches()) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	void saveSharedSections(SharedSections shared, Path genPath, Path stagingPath, Charset cs) throws Exception {
+		if (shared.usedKeys.isEmpty()) {
+			return;
+		}
+		Path sharedPath = stagingPath.resolve(SHARED_DIR_NAME);
+		Files.createDirectories(sharedPath);
+
+		long savedBytes = 0;
+		for (String key : shared.usedKeys) {
+			List<String> body = new ArrayList<>(shared.bodies.get(key));
+			int uses = shared.uses.get(key);
+			savedBytes += (long) (uses - 1) * String.join("\n", body).getBytes(cs).length;
+
+			inlineAssets(body);
+			if (this.minimize) {
+				minimizeSource(body);
+			}
+			replacePageDirectives(body);
+			try (BufferedWriter out = Files.newBufferedWriter(sharedPath.resolve(key + ".jsp"), cs)) {
+				saveSource(body, out);
+			}
+		}
+		this.logger.info("Shared sections (fragments=" + shared.usedKeys.size() + ", includes=" + shared.uses.values().stream().mapToInt(i -> i).sum()
+				+ ", savedBytes=" + savedBytes + ", dir=" + genPath.resolve(SHARED_DIR_NAME) + ")");
+	}
+
+	static class SharedSections {
+		final Charset charset;
+		final Map<String, List<String>> bodies;
+		final String sharedDir;
+
+		final Set<String> usedKeys = new TreeSet<>();
+		final Map<String, Integer> uses = new HashMap<>();
+
+		SharedSections(Charset charset, Map<String, List<String>> bodies, String sharedDir) {
+			this.charset = charset;
+			this.bodies = bodies;
+			this.sharedDir = sharedDir;
+		}
+
+		String toIncludePage(List<String> body) {
+			String key = DigestUtils.sha256Hex(String.join("\n", body).getBytes(this.charset)).substring(0, 16);
+			if (!this.bodies.containsKey(key)) {
+				return null;
+			}
+			synchronized (this) {
+				this.usedKeys.add(key);
+				this.uses.merge(key, 1, Integer::sum);
+			}
+			return this.sharedDir + "/" + key + ".jsp";
+		}
+	}
+
+	// <!-- @inline /css/app.css --> -> <style>...</style>
+	// inlineMaxSize: <link rel="stylesheet" href="/css/app.css"> -> <style>...</style>, <script src="/js/app.js"></script> -> <script>...</script>
+
+	static final Pattern INLINE_PATTERN = Pattern.compile("\\s*<!--\\s*@inline\\s+([^\\s]+)\\s*-->\\s*", Pattern.CASE_INSENSITIVE);
+	static final Pattern STYLESHEET_PATTERN = Pattern.compile("<link\\b[^>]*\\brel\\s*=\\s*[\"']stylesheet[\"'][^>]*>", Pattern.CASE_INSENSITIVE);
+	static final Pattern SCRIPT_SRC_PATTERN = Pattern.compile("<script\\b[^>]*\\bsrc\\s*=[^>]*>\\s*</script>", Pattern.CASE_INSENSITIVE);
+	static final Pattern URL_ATTR_PATTERN = Pattern.compile("\\b(?:href|src)\\s*=\\s*[\"']([^\"']*)[\"']", Pattern.CASE_INSENSITIVE);
+	static final Pattern INLINE_BLOCKER_PATTERN = Pattern.compile("\\b(?:media|defer|async|integrity|module)\\b", Pattern.CASE_INSENSITIVE);
+	static final Pattern CSS_RELATIVE_URL_PATTERN = Pattern.compile("url\\(\\s*['\"]?(?!data:|https?:|/|#)", Pattern.CASE_INSENSITIVE);
+
+
+	void inlineAssets(List<String> source) throws Exception {
+		for (int i = 0; i < source.size(); i++) {
+			String line = source.get(i);
+
+			// @inline
+			Matcher matcher = INLINE_PATTERN.matcher(line);
+			if (matcher.matches()) {
+				String path = matcher.group(1);
+				if (!path.startsWith("/")) {
+					throw new IllegalArgumentException("@inline path must be context-relative (path=" + path + ")");
+				}
+				Path filePath = toInlinePath(path);
+				if (filePath == null) {
+					throw new IllegalArgumentException("@inline path must be a public file of the web application (path=" + path + ")");
+				}
+				if (!Files.isRegularFile(filePath)) {
+					throw new IllegalArgumentException("@inline file is not found (path=" + path + ")");
+				}
+				String content = loadInline(filePath);
+				if (isInlineBlocked(path, content)) {
+					throw new IllegalArgumentException("@inline file can't contain its closing tag (path=" + path + ")");
+				}
+				source.set(i, copyIndents(line) + toInlineElement(path, content));
+				continue;
+			}
+
+			if (this.inlineMaxSize > 0) {
+				line = inlineElements(line, STYLESHEET_PATTERN, ".css");
+				line = inlineElements(line, SCRIPT_SRC_PATTERN, ".js");
+				source.set(i, line);
+			}
+		}
+	}
+
+	String inlineElements(String line, Pattern elementPattern, String type) throws Exception {
+		Matcher matcher = elementPattern.matcher(line);
+		StringBuffer sb = null;
+
+		while (matcher.find()) {
+			String element = matcher.group();
+			Matcher urlMatcher = URL_ATTR_PATTERN.matcher(element);
+			if (!urlMatcher.find() || INLINE_BLOCKER_PATTERN.matcher(element.replace(urlMatcher.group(), "")).find()) {
+				continue;
+			}
+			Matcher pathMatcher = ASSET_PATH_PATTERN.matcher(urlMatcher.group(1));
+			if (!pathMatcher.matches() || !pathMatcher.group(2).toLowerCase(Locale.ENGLISH).endsWith(type) || pathMatcher.group(2).startsWith("//")) {
+				continue;
+			}
+			Path filePath = toInlinePath(pathMatcher.group(2));
+			if ((filePath == null) || !Files.isRegularFile(filePath) || (filePath.toFile().length() > this.inlineMaxSize)) {
+				continue;
+			}
+			String content = loadInline(filePath);
+			if (isInlineBlocked(pathMatcher.group(2), content) || (".css".equals(type) && CSS_RELATIVE_URL_PATTERN.matcher(content).find())) {
+				continue;
+			}
+			if (sb == null) {
+				sb = new StringBuffer();
+			}
+			matcher.appendReplacement(sb, Matcher.quoteReplacement(toInlineElement(pathMatcher.group(2), content)));
+		}
+		if (sb == null) {
+			return line;
+		}
+		matcher.appendTail(sb);
+		return sb.toString();
+	}
+
+	// Only public files are inlined: the path is normalized and must stay in appDir, outside WEB-INF and META-INF
+
+	Path toInlinePath(String path) throws IOException {
+		Path appPath = this.appDir.toPath().toAbsolutePath().normalize();
+		Path filePath = appPath.resolve(path.substring(1)).normalize();
+		if (!isPublicPath(appPath, filePath)) {
+			return null;
+		}
+		// Symbolic links
+		if (Files.exists(filePath) && !isPublicPath(appPath.toRealPath(), filePath.toRealPath())) {
+			return null;
+		}
+		return filePath;
+	}
+
+	static boolean isPublicPath(Path appPath, Path filePath) {
+		if (!filePath.startsWith(appPath) || filePath.equals(appPath)) {
+			return false;
+		}
+		String dirName = appPath.relativize(filePath).getName(0).toString();
+		return !dirName.equalsIgnoreCase("WEB-INF") && !dirName.equalsIgnoreCase("META-INF");
+	}
+
+	static boolean isInlineBlocked(String path, String content) {
+		String name = path.toLowerCase(Locale.ENGLISH);
+		if (name.endsWith(".css")) {
+			return content.toLowerCase(Locale.ENGLISH).contains("</style");
+		}
+		if (name.endsWith(".js")) {
+			return content.toLowerCase(Locale.ENGLISH).contains("</script");
+		}
+		return false;
+	}
+
+	String loadInline(Path filePath) throws Exception {
+		Charset cs = ValueUtils.valueOrAlt(this.charset, StandardCharsets.UTF_8);
+		JspEngine engine = getEngine();
+		return engine.loadCached(engine.inlineCache, filePath, cs, (p, c) -> {
+			// Template text: ${, #{ and <% must be escaped
+			String content = new String(Files.readAllBytes(p), c).trim();
+			return content.replace("${", "\\${").replace("#{", "\\#{").replace("<%", "<\\%");
+		});
+	}
+
+	static String toInlineElement(String path, String content) {
+		String name = path.toLowerCase(Locale.ENGLISH);
+		if (name.endsWith(".css")) {
+			return "<style>" + content + "</style>";
+		}
+		if (name.endsWith(".js")) {
+			return "<script>" + content + "</script>";
+		}
+		return content;
+	}
+
+	// Asset versioning: href="${ctx}/css/app.css" -> href="${ctx}/css/app.css?v={hash}"
+	// Only context-relative URLs of files in the web application (outside WEB-INF, META-INF) are versioned
+
+	public static final String ASSET_MANIFEST_FILE_NAME = "__assets.properties";
+
+	static final Pattern ASSET_REF_PATTERN = Pattern.compile("\\b(src|href)(\\s*=\\s*)([\"'])(.*?)\\3", Pattern.CASE_INSENSITIVE);
+	static final Pattern ASSET_PATH_PATTERN = Pattern.compile("((?:\\$\\{[^}]*})*)(/[^?#]*)(#.*)?");
+
+	Map<String, String> hashAppAssets() throws Exception {
+		Path appPath = this.appDir.toPath().toAbsolutePath();
+		List<Path> assets = null;
+		try (Stream<Path> files = Files.walk(appPath)) {
+			assets = files.filter(p -> !p.startsWith(appPath.resolve("WEB-INF")) && !p.startsWith(appPath.resolve("META-INF")) && isAssetFile(p)).collect(Collectors.toList());
+		}
+		return hashAssets(assets, p -> toWebPath(p));
+	}
+
+	Map<String, String> hashAssets(List<Path> assets, Function<Path, String> toWebPath) {
+		return assets.parallelStream().collect(Collectors.toConcurrentMap(toWebPath, p -> {
+			try {
+				return DigestUtils.sha256Hex(p).substring(0, 10);
+			} catch (IOException ex) {
+				throw new UncheckedIOException(ex);
+			}
+		}));
+	}
+
+	boolean isAssetFile(Path path) {
+		if (!Files.isRegularFile(path)) {
+			return false;
+		}
+		String name = path.getFileName().toString().toLowerCase(Locale.ENGLISH);
+		int idx = name.lastIndexOf('.');
+		if (idx < 0) {
+			return false;
+		}
+		return Arrays.asList(AssertUtils.assertNotNull(this.assetTypes).toLowerCase(Locale.ENGLISH).split("\\s*,\\s*")).contains(name.substring(idx + 1));
+	}
+
+	void versionAssets(JspOutput output, Map<String, String> appAssets) throws Exception {
+		Charset cs = ValueUtils.valueOrAlt(this.charset, StandardCharsets.UTF_8);
+		Map<String, String> versions = new TreeMap<>(appAssets);
+
+		// Copied assets
+		List<Path> files = null;
+		try (Stream<Path> s = Files.walk(output.stagingPath)) {
+			files = s.filter(p -> Files.isRegularFile(p)).collect(Collectors.toList());
+		}
+		if (!toWebPath(output.genPath).startsWith("/WEB-INF/")) {
+			versions.putAll(hashAssets(files.stream().filter(p -> isAssetFile(p)).collect(Collectors.toList()),
+					p -> toWebPath(output.genPath.resolve(output.stagingPath.relativize(p)))));
+		}
+
+		// Rewrite generated JSPs
+		files.stream().filter(p -> p.getFileName().toString().toLowerCase(Locale.ENGLISH).endsWith(".jsp")).parallel().forEach(p -> {
+			try {
+				List<String> source = Files.readAllLines(p, cs);
+				if (replaceAssetUrls(source, versions)) {
+					try (BufferedWriter out = Files.newBufferedWriter(p, cs)) {
+						saveSource(source, out);
+					}
+				}
+			} catch (Exception ex) {
+				throw new IllegalStateException(ex.getMessage(), ex);
+			}
+		});
+
+		// Manifest: sorted and without the Properties.store timestamp, so unchanged assets give the same file
+		try (BufferedWriter out = Files.newBufferedWriter(output.stagingPath.resolve(ASSET_MANIFEST_FILE_NAME), StandardCharsets.ISO_8859_1)) {
+			for (Entry<String, String> version : versions.entrySet()) {
+				out.write(escapeProperty(version.getKey(), true) + "=" + escapeProperty(version.getKey() + "?v=" + version.getValue(), false));
+				out.newLine();
+			}
+		}
+	}
+
+	// Escapes as Properties.store does, non-ASCII characters become unicode escapes
+
+	static String escapeProperty(String value, boolean key) {
+		StringBuilder sb = new StringBuilder(value.length() + 16);
+		for (int i = 0; i < value.length(); i++) {
+			char c = value.charAt(i);
+			switch (c) {
+			case ' ':
+				sb.append(((i == 0) || key) ? "\\ " : " ");
+				break;
+			case '\t':
+				sb.append("\\t");
+				break;
+			case '\n':
+				sb.append("\\n");
+				break;
+			case '\r':
+				sb.append("\\r");
+				break;
+			case '\f':
+				sb.append("\\f");
+				break;
+			case '\\':
+			case '=':
+			case ':':
+			case '#':
+			case '!':
+				sb.append('\\').append(c);
+				break;
+			default:
+				if ((c < 0x20) || (c > 0x7e)) {
+					sb.append(String.format("\\u%04X", (int) c));
+				} else {
+					sb.append(c);
+				}
+			}
+		}
+		return sb.toString();
+	}
+
+	boolean replaceAssetUrls(List<String> source, Map<String, String> versions) {
+		boolean replaced = false;
+		for (int i = 0; i < source.size(); i++) {
+			Matcher matcher = ASSET_REF_PATTERN.matcher(source.get(i));
+			StringBuffer sb = null;
+
+			while (matcher.find()) {
+				Matcher pathMatcher = ASSET_PATH_PATTERN.matcher(matcher.group(4));
+				if (!pathMatcher.matches() || pathMatcher.group(2).startsWith("//")) {
+					continue;
+				}
+				String version = versions.get(pathMatcher.group(2));
+				if (version == null) {
+					continue;
+				}
+				if (sb == null) {
+					sb = new StringBuffer();
+				}
+				String url = pathMatcher.group(1) + pathMatcher.group(2) + "?v=" + version + ValueUtils.valueOrAlt(pathMatcher.group(3), "");
+				matcher.appendReplacement(sb, Matcher.quoteReplacement(matcher.group(1) + matcher.group(2) + matcher.group(3) + url + matcher.group(3)));
+			}
+			if (sb != null) {
+				matcher.appendTail(sb);
+				source.set(i, sb.toString());
+				replaced = true;
+			}
+		}
+		return replaced;
+	}
+
+	// Pre-compressed siblings: app.css -> app.css.gz (Tomcat/Undertow precompressed resources)
+
+	boolean isGzipFile(File file) {
+		if (file.length() < this.gzipMinSize) {
+			return false;
+		}
+		String name = file.getName().toLowerCase(Locale.ENGLISH);
+		int idx = name.lastIndexOf('.');
+		if (idx < 0) {
+			return false;
+		}
+		return Arrays.asList(AssertUtils.assertNotNull(this.gzipTypes).toLowerCase(Locale.ENGLISH).split("\\s*,\\s*")).contains(name.substring(idx + 1));
+	}
+
+	void gzipFile(Path sourcePath, List<Path> filePaths) throws IOException {
+		Path gzPath = toGzipPath(filePaths.get(0));
+
+		// Source unchanged? Cached .gz files are keyed by the content hash: copies can keep timestamps with different content
+		Path cachePath = null;
+		Path hashPath = null;
+		String hash = null;
+		if (this.gzipCacheDir != null) {
+			cachePath = new File(this.gzipCacheDir).toPath().resolve(toWebPath(sourcePath).substring(1) + ".gz");
+			hashPath = cachePath.resolveSibling(cachePath.getFileName().toString() + ".sha256");
+			hash = DigestUtils.sha256Hex(sourcePath);
+		}
+		if ((cachePath != null) && Files.exists(cachePath) && Files.exists(hashPath)
+				&& hash.equals(new String(Files.readAllBytes(hashPath), StandardCharsets.US_ASCII).trim())) {
+			Files.copy(cachePath, gzPath, StandardCopyOption.REPLACE_EXISTING);
+
+		} else {
+			try (OutputStream out = new GZIPOutputStream(Files.newOutputStream(gzPath)) {
+				{
+					this.def.setLevel(Deflater.BEST_COMPRESSION);
+				}
+			}) {
+				Files.copy(sourcePath, out);
+			}
+
+			if (cachePath != null) {
+				Files.createDirectories(cachePath.getParent());
+				Files.copy(gzPath, cachePath, StandardCopyOption.REPLACE_EXISTING);
+				Files.write(hashPath, hash.getBytes(StandardCharsets.US_ASCII));
+			}
+		}
+
+		// Not smaller?
+		if (Files.size(gzPath) >= Files.size(sourcePath)) {
+			Files.delete(gzPath);
+			return;
+		}
+		for (int i = 1; i < filePaths.size(); i++) {
+			Files.copy(gzPath, toGzipPath(filePaths.get(i)), StandardCopyOption.REPLACE_EXISTING);
+		}
+	}
+
+	static Path toGzipPath(Path filePath) {
+		return filePath.resolveSibling(filePath.getFileName().toString() + ".gz");
+	}
+
+	// Warm-up manifest: webPath<TAB>layout<TAB>hits
+	// Pages are grouped by layout, hottest layouts and pages first
+
+	public static final String MANIFEST_FILE_NAME = "__manifest.txt";
+
+	void saveManifest(List<PageEntry> pages, Properties hitCounts, Path manifestPath) throws Exception {
+		Map<String, Long> layoutHits = new HashMap<>();
+		for (PageEntry page : pages) {
+			String hits = ValueUtils.valueOrAlt(hitCounts.getProperty(page.webPath), hitCounts.getProperty(page.relativePath));
+			if (hits != null) {
+				page.hits = Long.parseLong(hits.trim());
+			}
+			layoutHits.merge(page.layoutKey(), page.hits, Long::sum);
+		}
+
+		pages.sort(Comparator.comparing((PageEntry p) -> layoutHits.get(p.layoutKey()), Comparator.reverseOrder()).thenComparing(PageEntry::layoutKey)
+				.thenComparing(p -> p.hits, Comparator.reverseOrder()).thenComparing(p -> p.webPath));
+
+		try (BufferedWriter out = Files.newBufferedWriter(manifestPath, StandardCharsets.UTF_8)) {
+			out.write("# webPath\tlayout\thits");
+			for (PageEntry page : pages) {
+				out.newLine();
+				out.write(page.webPath + "\t" + page.layoutKey() + "\t" + page.hits);
+			}
+		}
+	}
+
+	String toWebPath(Path path) {
+		return "/" + toUnixPath(this.appDir.toPath().toAbsolutePath().relativize(path.toAbsolutePath()));
+	}
+
+	static String toUnixPath(Path path) {
+		StringBuilder sb = new StringBuilder();
+		for (Path name : path) {
+			if (sb.length() > 0)
+				sb.append('/');
+			sb.append(name.toString());
+		}
+		return sb.toString();
+	}
+
+	// session="false" trimDirectiveWhitespaces="true"
+
+	static final Pattern START_PAGE_DIR_PATTERN = Pattern.compile("\\s*<%@\\s*page.*");
+	static final Pattern END_DIR_PATTERN = Pattern.compile(".*%>\\s*");
+	static final Pattern BLANK_PAGE_DIR_PATTERN = Pattern.compile("\\s*<%@\\s*page\\s*%>\\s*");
+
+	static final Pattern SESSION_ATTR_PATTERN = Pattern.compile("session\\s*=\\s*\"\\s*(true|false)\\s*\"");
+	static final Pattern TRIM_DIRECTIVE_WHITESPACES_ATTR_PATTERN = Pattern.compile("trimDirectiveWhitespaces\\s*=\\s*\"\\s*(true|false)\\s*\"");
+	static final Pattern PAGE_ENCODING_ATTR_PATTERN = Pattern.compile("pageEncoding\\s*=\\s*\"\\s*[a-zA-Z\\d-]+\\s*\"");
+
+	void replacePageDirectives(List<String> source) {
+		int start = -1;
+		boolean hasDirectives = false;
+		while (true) {
+			while ((++start < source.size()) && !START_PAGE_DIR_PATTERN.matcher(source.get(start)).matches()) {
+			}
+			if (start == source.size()) {
+				break;
+			}
+			int end = start;
+			while ((end < source.size()) && !END_DIR_PATTERN.matcher(source.get(end)).matches()) {
+				end++;
+			}
+			if (end == source.size()) {
+				break;
+			}
+
+			String pageDirective = toDirectiveSource(source, start, end);
+			if (!hasDirectives) {
+				Matcher matcher = null;
+
+				// session
+				if (!this.session) {
+					matcher = SESSION_ATTR_PATTERN.matcher(pageDirective);
+					if (matcher.find()) {
+						pageDirective = matcher.replaceAll("session=\"false\"");
+					} else {
+						pageDirective = addDirectiveAttribute(pageDirective, " session=\"false\"");
+					}
+				}
+
+				// trimDirectiveWhitespaces
+				if (this.trimDirectiveWhitespaces) {
+					matcher = TRIM_DIRECTIVE_WHITESPACES_ATTR_PATTERN.matcher(pageDirective);
+					if (matcher.find()) {
+						pageDirective = matcher.replaceAll("trimDirectiveWhitespaces=\"true\"");
+					} else {
+						pageDirective = addDirectiveAttribute(pageDirective, " trimDirectiveWhitespaces=\"true\"");
+					}
+				}
+
+				// pageEncoding
+				if (this.charset != null) {
+					matcher = PAGE_ENCODING_ATTR_PATTERN.matcher(pageDirective);
+					if (matcher.find()) {
+						pageDirective = matcher.replaceAll("pageEncoding=\"" + this.charset.name() + "\"");
+					} else {
+						pageDirective = addDirectiveAttribute(pageDirective, " pageEncoding=\"" + this.charset.name() + "\"");
+					}
+				}
+
+				hasDirectives = true;
+			} else {
+				pageDirective = SESSION_ATTR_PATTERN.matcher(pageDirective).replaceAll("");
+				pageDirective = TRIM_DIRECTIVE_WHITESPACES_ATTR_PATTERN.matcher(pageDirective).replaceAll("");
+
+				if (this.charset != null) {
+					pageDirective = PAGE_ENCODING_ATTR_PATTERN.matcher(pageDirective).replaceAll("");
+				}
+			}
+			removeSubSource(source, start, end);
+
+			if (!BLANK_PAGE_DIR_PATTERN.matcher(pageDirective).matches()) {
+				pageDirective = pageDirective.replaceAll("\\s{2,}", " ");
+				source.add(start, pageDirective);
+			} else {
+				source.add(start, "<!-- @page removed -->");
+			}
+		}
+		if (!hasDirectives) {
+			if (this.charset == null) {
+				source.add(0, "<%@ page session=\"false\" trimDirectiveWhitespaces=\"true\"%>");
+			} else {
+				source.add(0, "<%@ page session=\"false\" trimDirectiveWhitespaces=\"true\" pageEncoding=\"" + this.charset.name() + "\"%>");
+			}
+		}
+	}
+
+	// <!-- @doBody -->
+	// <!-- @someSection? -->
+
+	static final Pattern DO_BODY_PATTERN = Pattern.compile("\\s*<!--\\s*@doBody\\s*-->\\s*", Pattern.CASE_INSENSITIVE);
+	static final Pattern SECTION_PATTERN = Pattern.compile("\\s*<!--\\s*@[^\\s]+(\\?)?\\s*-->\\s*", Pattern.CASE_INSENSITIVE);
+
+	void replaceSections(JspModel model) {
+		// doBody
+		boolean doBody = false;
+		while (true) {
+			int pos = -1;
+			while ((++pos < model.layoutSource.size()) && !DO_BODY_PATTERN.matcher(model.layoutSource.get(pos)).matches()) {
+			}
+			if (pos == model.layoutSource.size()) {
+				break;
+			}
+			if (doBody) {
+				throw new IllegalArgumentException("@doBody is duplicated (layout=" + model.layoutJspName + ")");
+			}
+
+			String bodyLine = model.layoutSource.get(pos);
+			String indents = copyIndents(bodyLine);
+
+			model.layoutSource.set(pos, indents + "<!-- @doBody processed -->");
+			model.layoutSource.add(pos + 1, indents + "<%@ include file=\"" + model.includeJspName + "\" %>");
+
+			doBody = true;
+		}
+		if (!doBody) {
+			throw new IllegalArgumentException("@doBody is required (layout=" + model.layoutJspName + ")");
+		}
+
+		// Sections
+		while (true) {
+			int pos = -1;
+			while ((++pos < model.layoutSource.size()) && !SECTION_PATTERN.matcher(model.layoutSource.get(pos)).matches()) {
+			}
+			if (pos == model.layoutSource.size()) {
+				break;
+			}
+
+			String sectionLine = model.layoutSource.get(pos);
+			String sectionName = sectionLine.substring(sectionLine.indexOf("@") + 1, sectionLine.indexOf("-->")).trim();
+
+			boolean sectionRequired = true;
+			if (sectionName.endsWith("?")) {
+				sectionName = sectionName.substring(0, sectionName.length() - 1);
+				sectionRequired = false;
+			}
+
+			List<String> sectionSource = model.sections.get(sectionName);
+			String indents = copyIndents(sectionLine);
+
+			if (sectionSource != null) {
+				// Shared?
+				String sharedPage = (model.sharedSections != null) ? model.sharedSections.toIncludePage(sectionSource) : null;
+				if (sharedPage != null) {
+					sectionSource = new ArrayList<>();
+					sectionSource.add(indents + "<jsp:include page=\"" + sharedPage + "\" />");
+				}
+
+				sectionSource.add(0, indents + "<!-- @" + sectionName + " begin -->");
+				sectionSource.add(indents + "<!-- @" + sectionName + " end -->");
+
+				model.layoutSource.remove(pos);
+				model.layoutSource.addAll(pos, sectionSource);
+			} else {
+				if (sectionRequired) {
+					throw new IllegalArgumentException("@" + sectionName + " is required (jsp=" + model.jspName + ")");
+				} else {
+					model.layoutSource.set(pos, indents + "<!-- @" + sectionName + "? undefined -->");
+				}
+			}
+		}
+	}
+
+	// _jspService size: the layout and its statically included body are compiled into one method
+
+	static final Pattern TAGLIB_DIR_PATTERN = Pattern.compile("\\s*<%@\\s*taglib\\s.*%>\\s*");
+
+	void checkMethodSize(JspModel model) {
+		if ((this.methodSizeWarn <= 0) && (this.methodSizeLimit <= 0)) {
+			return;
+		}
+		int size = estimateMethodSize(model);
+
+		if (this.splitLargeMethods && (model.layoutSource != null) && (this.methodSizeWarn > 0) && (size > this.methodSizeWarn)) {
+			size = splitLargeMethod(model, size);
+		}
+		checkMethodSize(model.jspName, size);
+	}
+
+	void checkMethodSize(String jspName, int size) {
+		if ((this.methodSizeLimit > 0) && (size > this.methodSizeLimit)) {
+			throw new IllegalArgumentException("_jspService is too large (estimatedSize=" + size + ", jsp=" + jspName + ")");
+		}
+		if ((this.methodSizeWarn > 0) && (size > this.methodSizeWarn)) {
+			this.logger.warn("_jspService won't be JIT-compiled (estimatedSize=" + size + ", jsp=" + jspName + ")");
+		}
+	}
+
+	int estimateMethodSize(JspModel model) {
+		if (model.layoutSource == null) {
+			return MethodSizeEstimator.estimateService(model.jspSource, this.mappedFile);
+		}
+		int size = MethodSizeEstimator.estimateService(model.layoutSource, this.mappedFile);
+		if (!model.dynamicBody) {
+			size += MethodSizeEstimator.estimate(model.jspSource, this.mappedFile);
+		}
+		return size;
+	}
+
+	// Only static sections and bodies are split: included pages don't share page scope, scripting variables and imports
+
+	int splitLargeMethod(JspModel model, int size) {
+		List<String> bodyTaglibs = copyTaglibs(model.layoutSource);
+		List<String> taglibs = new ArrayList<>(bodyTaglibs);
+		taglibs.addAll(copyTaglibs(model.jspSource));
+
+		while (size > this.methodSizeWarn) {
+			// Largest section
+			int start = -1, end = -1, sectionSize = 0;
+			for (int i = 0; i < model.layoutSource.size(); i++) {
+				if (!SECTION_START_PATTERN.matcher(model.layoutSource.get(i)).matches()) {
+					continue;
+				}
+				int j = i;
+				while ((++j < model.layoutSource.size()) && !SECTION_END_PATTERN.matcher(model.layoutSource.get(j)).matches()) {
+				}
+				if (j == model.layoutSource.size()) {
+					break;
+				}
+				List<String> section = copySubSource(model.layoutSource, i + 1, j - 1);
+				if (!isStaticRegion(section)) {
+					i = j;
+					continue;
+				}
+				int s = MethodSizeEstimator.estimate(section, this.mappedFile);
+				if (s > sectionSize) {
+					start = i;
+					end = j;
+					sectionSize = s;
+				}
+				i = j;
+			}
+			int bodySize = (model.dynamicBody || !isStaticRegion(model.jspSource)) ? 0 : MethodSizeEstimator.estimate(model.jspSource, this.mappedFile);
+
+			if ((bodySize == 0) && (sectionSize == 0)) {
+				this.logger.warn("_jspService can't be split, no static body or section is left (estimatedSize=" + size + ", jsp=" + model.jspName + ")");
+				break;
+			}
+
+			if (bodySize >= sectionSize) {
+				// Body -> <jsp:include>
+				int pos = indexOfBodyInclude(model);
+				model.layoutSource.set(pos, copyIndents(model.layoutSource.get(pos)) + "<jsp:include page=\"" + model.includeJspName + "\" />");
+				model.jspSource.addAll(0, bodyTaglibs);
+				model.dynamicBody = true;
+
+				size = size - bodySize + MethodSizeEstimator.STANDARD_ACTION_SIZE;
+			} else {
+				// Section -> <jsp:include>
+				String sectionLine = model.layoutSource.get(start);
+				String sectionName = sectionLine.substring(sectionLine.indexOf("@") + 1, sectionLine.indexOf(" begin")).trim();
+				String fragmentName = FileNameUtils.insertExtra(model.jspName, "__" + sectionName.replaceAll("[^\\w.-]", "_"));
+
+				List<String> fragment = new ArrayList<>(taglibs);
+				fragment.addAll(copySubSource(model.layoutSource, start + 1, end - 1));
+				model.fragments.put(fragmentName, fragment);
+
+				String indents = copyIndents(sectionLine);
+				removeSubSource(model.layoutSource, start, end);
+				model.layoutSource.add(start, indents + "<!-- @" + sectionName + " split -->");
+				model.layoutSource.add(start + 1, indents + "<jsp:include page=\"" + fragmentName + "\" />");
+
+				size = size - sectionSize + MethodSizeEstimator.STANDARD_ACTION_SIZE;
+			}
+		}
+		return size;
+	}
+
+	static boolean isStaticRegion(List<String> source) {
+		return isStaticSection(source.stream().filter(line -> !TAGLIB_DIR_PATTERN.matcher(line).matches()).collect(Collectors.toList()));
+	}
+
+	static int indexOfBodyInclude(JspModel model) {
+		String bodyInclude = "<%@ include file=\"" + model.includeJspName + "\" %>";
+		for (int i = 0; i < model.layoutSource.size(); i++) {
+			if (model.layoutSource.get(i).trim().equals(bodyInclude)) {
+				return i;
+			}
+		}
+		throw new IllegalArgumentException("@doBody is required (layout=" + model.layoutJspName + ")");
+	}
+
+	// <!-- @variables:fileLocation -->
+	static final Pattern VAR_FILE_PATTERN = Pattern.compile("\\s*<!--\\s*@variables\\s*:.*-->\\s*", Pattern.CASE_INSENSITIVE);
+
+	// <!-- @variable key=value -->
+	static final Pattern VAR_PATTERN = Pattern.compile("\\s*<!--\\s*@variable\\s+[^\\s=]+\\s*=.*-->\\s*", Pattern.CASE_INSENSITIVE);
+
+	// <!-- @variables
+	// title=expression
+	// __layout=layout
+	// -->
+
+	static final Pattern VAR_START_PATTERN = Pattern.compile("\\s*<!--\\s*@variables\\s*", Pattern.CASE_INSENSITIVE);
+	static final Pattern VAR_END_PATTERN = Pattern.compile("\\s*-->\\s*");
+	static final Pattern VAR_NAME_VAL_PATTERN = Pattern.compile("[^\\s=]+\\s*=.*", Pattern.CASE_INSENSITIVE);
+
+	void parseVariables(String jspName, List<String> source, Map<String, String> variables, Path configPath) throws Exception {
+
+		// @variables:fileLocation
+		while (true) {
+			int pos = -1;
+			while ((++pos < source.size()) && !VAR_FILE_PATTERN.matcher(source.get(pos)).matches()) {
+			}
+			if (pos == source.size()) {
+				break;
+			}
+
+			String varFileLine = source.get(pos);
+			int varIdx = varFileLine.indexOf(":");
+
+			String fileLocation = varFileLine.substring(varIdx + 1, varFileLine.indexOf("-->", varIdx)).trim();
+			if (fileLocation.isEmpty()) {
+				throw new IllegalArgumentException("@variables: is invalid (jsp=" + jspName + ")");
+			}
+
+			source.set(pos, copyIndents(varFileLine) + "<!-- " + fileLocation + " processed -->");
+
+			// Import
+			Properties props = loadProperties(configPath.resolve(fileLocation));
+			props.forEach((k, v) -> variables.put((String) k, (String) v));
+		}
+
+		// @variable key=value
+		boolean outVariable = false;
+		while (true) {
+			int pos = -1;
+			while ((++pos < source.size()) && !VAR_PATTERN.matcher(source.get(pos)).matches()) {
+			}
+			if (pos == source.size()) {
+				break;
+			}
+
+			String varLine = source.get(pos);
+			int varIdx = varLine.indexOf("@variable");
+			String nameVal = varLine.substring(varIdx + "@variable".length(), varLine.indexOf("-->", varIdx)).trim();
+
+			int idx = nameVal.indexOf('=');
+			String key = nameVal.substring(0, idx).trim();
+			variables.put(key, StringUtils.trimToEmpty(nameVal.substring(idx + 1)));
+
+			if (!outVariable) {
+				outVariable = true;
+				source.set(pos, copyIndents(varLine) + "<!-- @variable(s) processed -->");
+			} else {
+				source.remove(pos);
+			}
+		}
+
+		// @variables
+		while (true) {
+			int start = -1;
+			while ((++start < source.size()) && !VAR_START_PATTERN.matcher(source.get(start)).matches()) {
+			}
+			if (start == source.size()) {
+				break;
+			}
+			int end = start;
+			while ((++end < source.size()) && !VAR_END_PATTERN.matcher(source.get(end)).matches()) {
+			}
+
+			String variablesLine = source.get(start);
+			if (end == source.size()) {
+				throw new IllegalArgumentException("@variables must have a closing directive (jsp=" + jspName + ")");
+			}
+
+			// variables: start-end
+			for (int i = start + 1; i < end; i++) {
+				String nameVal = source.get(i).trim();
+				if ((nameVal.isEmpty()) || nameVal.startsWith("//")) {
+					continue;
+				}
+				if (!VAR_NAME_VAL_PATTERN.matcher(nameVal).matches()) {
+					throw new IllegalArgumentException("Variable is invalid (name/value=" + nameVal + ", jsp=" + jspName + ")");
+				}
+				int idx = nameVal.indexOf('=');
+				variables.put(nameVal.substring(0, idx).trim(), StringUtils.trimToEmpty(nameVal.substring(idx + 1)));
+			}
+
+			removeSubSource(source, start, end);
+			source.add(start, copyIndents(variablesLine) + "<!-- @variables processed -->");
+		}
+	}
+
+	// <!-- @someSection begin -->
+	// HTML/JSP
+	// <!-- @someSection end -->
+
+	static final Pattern SECTION_START_PATTERN = Pattern.compile("\\s*<!--\\s*@[^\\s]+\\s+begin\\s*-->\\s*", Pattern.CASE_INSENSITIVE);
+	static final Pattern SECTION_END_PATTERN = Pattern.compile("\\s*<!--\\s*@[^\\s]+\\s+end\\s*-->\\s*", Pattern.CASE_INSENSITIVE);
+
+	void parseSections(JspModel model) {
+		while (true) {
+			int start = -1;
+			while ((++start < model.jspSource.size()) && !SECTION_START_PATTERN.matcher(model.jspSource.get(start)).matches()) {
+			}
+			if (start == model.jspSource.size()) {
+				break;
+			}
+
+			String sectionLine = model.jspSource.get(start);
+			int idx = sectionLine.indexOf("@");
+			String sectionName = sectionLine.substring(idx + 1, sectionLine.indexOf(' ', idx)).trim();
+
+			int end = start;
+			boolean hasClosing = true;
+			while ((++end < model.jspSource.size()) && !SECTION_END_PATTERN.matcher(model.jspSource.get(end)).matches()) {
+				if (SECTION_START_PATTERN.matcher(model.jspSource.get(end)).matches()) {
+					hasClosing = false;
+					break;
+				}
+			}
+			if (!hasClosing || (end == model.jspSource.size())) {
+				throw new IllegalArgumentException("@" + sectionName + " must have a closing directive (jsp=" + model.jspName + ")");
+			}
+			if (model.sections.containsKey(sectionName)) {
+				throw new IllegalArgumentException("@" + sectionName + " is duplicated (jsp=" + model.jspName + ")");
+			}
+
+			if (end - start > 1) {
+				model.sections.put(sectionName, copySubSource(model.jspSource, start + 1, end - 1));
+			} else {
+				model.sections.put(sectionName, new ArrayList<>());
+			}
+
+			removeSubSource(model.jspSource, start, end);
+			model.jspSource.add(start, copyIndents(sectionLine) + "<!-- @" + sectionName + " removed -->");
+		}
+	}
+
+	List<String> loadSource(Path sourcePath, Charset cs, boolean cacheSource) throws Exception {
+		if (!cacheSource) {
+			return Files.readAllLines(sourcePath, cs);
+
+		} else {
+			// Cache?
+			JspEngine engine = getEngine();
+			return new ArrayList<String>(engine.loadCached(engine.sourceCache, sourcePath, cs, Files::readAllLines));
+		}
+	}
+
+	Properties loadProperties(Path propsPath) throws Exception {
+		JspEngine engine = getEngine();
+		return engine.loadCached(engine.propsCache, propsPath, StandardCharsets.UTF_8, (p, c) -> {
+			Properties props = new Properties();
+			try (Reader r = Files.newBufferedReader(p, c)) {
+				props.load(r);
+			}
+			return props;
+		});
+	}
+
+	// Peak heap: the used heap sampled after each page of this run, JVM-wide peaks aren't reset
+	// A daemon's concurrent builds share the heap, so samples include their usage
+
+	void samplePeakHeap() {
+		long used = ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+		this.peakHeap.accumulateAndGet(used, Math::max);
+	}
+
+	static long toMegabytes(long bytes) {
+		return bytes / (1024 * 1024);
+	}
+
+	// Variables are replaced one after another in map order: @{name} then @(name), names are case-insensitive
+	// A value is only expanded by the variables replaced after it, unknown variables are kept as is
+	// Holder patterns are compiled once per name and cached by the engine
+
+	void replaceVariables(List<String> source, Map<String, String> variables) {
+		JspEngine engine = getEngine();
+		for (int i = 0; i < source.size(); i++) {
+			String line = source.get(i);
+			for (Entry<String, String> entry : variables.entrySet()) {
+				if (line.indexOf('@') < 0) {
+					break;
+				}
+				String value = Matcher.quoteReplacement(entry.getValue());
+				for (Pattern holder : engine.getHolderPatterns(entry.getKey())) {
+					line = holder.matcher(line).replaceAll(value);
+				}
+			}
+			source.set(i, line);
+		}
+	}
+
+	static Pattern[] toHolderPatterns(String name) {
+		return new Pattern[] { Pattern.compile("@\\{\\s*" + Pattern.quote(name) + "\\s*}", Pattern.CASE_INSENSITIVE),
+				Pattern.compile("@\\(\\s*" + Pattern.quote(name) + "\\s*\\)", Pattern.CASE_INSENSITIVE) };
+	}
+
+	static String copyIndents(String source) {
+		int end = -1;
+		while ((++end < source.length()) && Character.isWhitespace(source.charAt(end))) {
+		}
+		return source.substring(0, end);
+	}
+
+	static List<String> copySubSource(List<String> source, int start, int end) {
+		List<String> list = new ArrayList<>();
+		for (int i = start; i <= end; i++) {
+			list.add(source.get(i));
+		}
+		return list;
+	}
+
+	static void removeSubSource(List<String> source, int start, int end) {
+		for (int i = end; i >= start; i--) {
+			source.remove(i);
+		}
+	}
+
+	static final Pattern BLANK_LINE_PATTERN = Pattern.compile("\\s*");
+
+	void minimizeSource(List<String> source) {
+		for (int i = source.size() - 1; i >= 0; i--) {
+			if (BLANK_LINE_PATTERN.matcher(source.get(i)).matches()) {
+				source.remove(i);
+			}
+		}
+	}
+
+	static void saveSource(List<String> source, BufferedWriter out) throws Exception {
+		for (int i = 0; i < source.size(); i++) {
+			if (i > 0) {
+				out.newLine();
+			}
+			out.write(source.get(i));
+		}
+	}
+
+	static String toDirectiveSource(List<String> source, int start, int end) {
+		StringBuilder sb = new StringBuilder();
+		for (int i = start; i <= end; i++) {
+			if (sb.length() > 0)
+				sb.append(" ");
+			sb.append(source.get(i));
+		}
+		return sb.toString();
+	}
+
+	static String addDirectiveAttribute(String directive, String attr) {
+		int idx = directive.lastIndexOf("%>");
+		return directive.substring(0, idx) + attr + "%>";
+	}
+
+	static String getLayoutName(String jspName, Map<String, String> variables) {
+		String layoutName = variables.get("__layout");
+		if (layoutName == null) {
+			return null;
+		}
+		if (layoutName.isEmpty()) {
+			throw new IllegalArgumentException("__layout is required (jsp=" + jspName + ")");
+		}
+		return layoutName;
+	}
+
+	static class JspModel {
+		String jspName;
+		List<String> jspSource;
+
+		final Map<String, String> jspVariables = new HashMap<>();
+
+		final Map<String, String> mergedVariables = new HashMap<>();
+		final Map<String, List<String>> sections = new HashMap<>();
+		final Map<String, List<String>> fragments = new LinkedHashMap<>();
+
+		// If layout
+		String layoutJspName;
+		List<String> layoutSource;
+		String includeJspName;
+		boolean dynamicBody;
+
+		SharedSections sharedSections;
+
+		JspModel copy() {
+			JspModel model = new JspModel();
+			model.jspName = this.jspName;
+			model.jspSource = new ArrayList<>(this.jspSource);
+			model.jspVariables.putAll(this.jspVariables);
+			this.sections.forEach((k, v) -> model.sections.put(k, new ArrayList<>(v)));
+			return model;
+		}
+	}
+
+	static class PageEntry {
+		final String webPath;
+		final String relativePath;
+		final String layoutName;
+		long hits;
+
+		PageEntry(String webPath, String relativePath, String layoutName) {
+			this.webPath = webPath;
+			this.relativePath = relativePath;
+			this.layoutName = layoutName;
+		}
+
+		String layoutKey() {
+			return (this.layoutName != null) ? this.layoutName : "-";
+		}
+	}
+}
@@ -0,0 +1,238 @@
+// The MIT License (MIT)
+// Copyright © 2015 AppsLandia. All rights reserved.
+
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+
+// The above copyright notice and this permission notice shall be included in all
+// copies or substantial portions of the Software.
+
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+
+package com.appslandia.jspprocessor.impl;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Properties;
+import java.util.Set;
+
+import com.appslandia.jspprocessor.utils.StringUtils;
+
+/**
+ * Command-line entry point, options use the parameter names of {@link JspProcessorMojo}.
+ *
+ * <pre>
+ * java -cp appslandia-jsp-processor.jar com.appslandia.jspprocessor.impl.JspProcessorCli --webContentDir=WebContent --minimize
+ * java -cp appslandia-jsp-processor.jar com.appslandia.jspprocessor.impl.JspProcessorCli --daemon --daemonPort=17900
+ * java -cp appslandia-jsp-processor.jar com.appslandia.jspprocessor.impl.JspProcessorCli --webContentDir=WebContent --daemonPort=17900
+ * java -cp appslandia-jsp-processor.jar com.appslandia.jspprocessor.impl.JspProcessorCli --stop --daemonPort=17900
+ * java -cp appslandia-jsp-processor.jar com.appslandia.jspprocessor.impl.JspProcessorCli --webContentDir=WebContent --rollback
+ * java -cp appslandia-jsp-processor.jar com.appslandia.jspprocessor.impl.JspProcessorCli --webContentDir=WebContent --variants=brand1,brand2 --variant.brand1.properties=brand1.properties
+ * </pre>
+ *
+ * When --daemonPort is given and a daemon is running on it, the build is delegated to the daemon, otherwise it runs in this JVM.
+ *
+ * @author <a href="mailto:haducloc13@gmail.com">Loc Ha</a>
+ *
+ */
+public class JspProcessorCli {
+
+	static final String[] PATH_OPTIONS = { "webContentDir", "hitCountsFile", "gzipCacheDir" };
+
+	static final Set<String> OPTIONS = new HashSet<>(Arrays.asList("webContentDir", "jspDir", "genDirName", "keepPrevious", "pageEncoding", "minimize",
+			"manifest", "hitCountsFile", "gzip", "gzipMinSize", "gzipTypes", "gzipCacheDir", "methodSizeWarn", "methodSizeLimit", "splitLargeMethods",
+			"mappedFile", "shareSections", "sharedSectionMinSize", "sharedLayouts", "inlineMaxSize", "maxInFlightPages", "cacheMaxSize", "assetVersioning",
+			"assetTypes", "variants", "daemon", "daemonPort", "stop", "rollback"));
+
+	static final Set<String> VARIANT_OPTIONS = new HashSet<>(Arrays.asList("properties", "genDirName"));
+
+	public static void main(String[] args) throws Exception {
+		Properties options = parseArgs(args);
+		int daemonPort = Integer.parseInt(options.getProperty("daemonPort", "0"));
+
+		JspLogger logger = new JspLogger() {
+
+			@Override
+			public void info(String message) {
+				System.out.println("[INFO] " + message);
+			}
+
+			@Override
+			public void warn(String message) {
+				System.out.println("[WARN] " + message);
+			}
+		};
+
+		try {
+			if (Boolean.parseBoolean(options.getProperty("daemon"))) {
+				int cacheMaxSize = Integer.parseInt(options.getProperty("cacheMaxSize", String.valueOf(JspEngine.DEFAULT_CACHE_MAX_SIZE)));
+				new JspProcessorDaemon(daemonPort, new JspEngine(cacheMaxSize), logger).run();
+				return;
+			}
+			if (Boolean.parseBoolean(options.getProperty("stop"))) {
+				if (!JspProcessorDaemon.stop(daemonPort)) {
+					logger.warn("No daemon is running (port=" + daemonPort + ")");
+				}
+				return;
+			}
+
+			if (Boolean.parseBoolean(options.getProperty("rollback"))) {
+				newProcessor(options).rollback();
+				return;
+			}
+
+			toAbsolutePaths(options);
+			if ((daemonPort > 0) && JspProcessorDaemon.submit(daemonPort, options, logger)) {
+				return;
+			}
+			newProcessor(options).logger(logger).process();
+
+		} catch (Exception ex) {
+			System.err.println("[ERROR] " + ex.getMessage());
+			System.exit(1);
+		}
+	}
+
+	static Properties parseArgs(String[] args) {
+		Properties options = new Properties();
+		for (String arg : args) {
+			if (!arg.startsWith("--")) {
+				throw new IllegalArgumentException("Argument is invalid (arg=" + arg + ")");
+			}
+			int idx = arg.indexOf('=');
+			if (idx < 0) {
+				options.setProperty(arg.substring(2), Boolean.TRUE.toString());
+			} else {
+				options.setProperty(arg.substring(2, idx), arg.substring(idx + 1));
+			}
+		}
+		options.putIfAbsent("webContentDir", "WebContent");
+		return options;
+	}
+
+	static void toAbsolutePaths(Properties options) {
+		for (String option : PATH_OPTIONS) {
+			String path = StringUtils.trimToNull(options.getProperty(option));
+			if (path != null) {
+				options.setProperty(option, new File(path).getAbsolutePath());
+			}
+		}
+	}
+
+	// Unknown options are rejected: an option of a newer client must not be dropped silently
+
+	static void assertKnownOptions(Properties options) {
+		Set<String> variants = new HashSet<>();
+		String value = options.getProperty("variants");
+		if (value != null) {
+			Arrays.stream(value.split(",")).map(String::trim).forEach(variants::add);
+		}
+
+		for (String option : options.stringPropertyNames()) {
+			if (OPTIONS.contains(option)) {
+				continue;
+			}
+			int idx = option.lastIndexOf('.');
+			if (option.startsWith("variant.") && (idx > 8) && variants.contains(option.substring(8, idx)) && VARIANT_OPTIONS.contains(option.substring(idx + 1))) {
+				continue;
+			}
+			throw new IllegalArgumentException("Option is unknown (option=" + option + ")");
+		}
+	}
+
+	public static JspProcessor newProcessor(Properties options) {
+		assertKnownOptions(options);
+
+		JspProcessor processor = new JspProcessor(options.getProperty("webContentDir"));
+		String value = null;
+
+		if ((value = options.getProperty("jspDir")) != null) {
+			processor.jspDir(value);
+		}
+		if ((value = options.getProperty("genDirName")) != null) {
+			processor.genDirName(value);
+		}
+		if ((value = options.getProperty("keepPrevious")) != null) {
+			processor.keepPrevious(Boolean.parseBoolean(value));
+		}
+		if ((value = options.getProperty("pageEncoding")) != null) {
+			processor.pageEncoding(value);
+		}
+		if ((value = options.getProperty("minimize")) != null) {
+			processor.minimize(Boolean.parseBoolean(value));
+		}
+		if ((value = options.getProperty("manifest")) != null) {
+			processor.manifest(Boolean.parseBoolean(value));
+		}
+		if ((value = options.getProperty("hitCountsFile")) != null) {
+			processor.hitCountsFile(value);
+		}
+		if ((value = options.getProperty("gzip")) != null) {
+			processor.gzip(Boolean.parseBoolean(value));
+		}
+		if ((value = options.getProperty("gzipMinSize")) != null) {
+			processor.gzipMinSize(Integer.parseInt(value));
+		}
+		if ((value = options.getProperty("gzipTypes")) != null) {
+			processor.gzipTypes(value);
+		}
+		if ((value = options.getProperty("gzipCacheDir")) != null) {
+			processor.gzipCacheDir(value);
+		}
+		if ((value = options.getProperty("methodSizeWarn")) != null) {
+			processor.methodSizeWarn(Integer.parseInt(value));
+		}
+		if ((value = options.getProperty("methodSizeLimit")) != null) {
+			processor.methodSizeLimit(Integer.parseInt(value));
+		}
+		if ((value = options.getProperty("splitLargeMethods")) != null) {
+			processor.splitLargeMethods(Boolean.parseBoolean(value));
+		}
+		if ((value = options.getProperty("mappedFile")) != null) {
+			processor.mappedFile(Boolean.parseBoolean(value));
+		}
+		if ((value = options.getProperty("shareSections")) != null) {
+			processor.shareSections(Boolean.parseBoolean(value));
+		}
+		if ((value = options.getProperty("sharedSectionMinSize")) != null) {
+			processor.sharedSectionMinSize(Integer.parseInt(value));
+		}
+		if ((value = options.getProperty("sharedLayouts")) != null) {
+			processor.sharedLayouts(Boolean.parseBoolean(value));
+		}
+		if ((value = options.getProperty("inlineMaxSize")) != null) {
+			processor.inlineMaxSize(Integer.parseInt(value));
+		}
+		if ((value = options.getProperty("maxInFlightPages")) != null) {
+			processor.maxInFlightPages(Integer.parseInt(value));
+		}
+		if ((value = options.getProperty("cacheMaxSize")) != null) {
+			processor.cacheMaxSize(Integer.parseInt(value));
+		}
+		if ((value = options.getProperty("assetVersioning")) != null) {
+			processor.assetVersioning(Boolean.parseBoolean(value));
+		}
+		if ((value = options.getProperty("assetTypes")) != null) {
+			processor.assetTypes(value);
+		}
+		if ((value = options.getProperty("variants")) != null) {
+			for (String name : value.split(",")) {
+				name = name.trim();
+				if (!name.isEmpty()) {
+					processor.variant(new JspVariant(name, options.getProperty("variant." + name + ".properties"), options.getProperty("variant." + name + ".genDirName")));
+				}
+			}
+		}
+		return processor;
+	}
+}
@@ -0,0 +1,307 @@
+// The MIT License (MIT)
+// Copyright © 2015 AppsLandia. All rights reserved.
+
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+
+// The above copyright notice and this permission notice shall be included in all
+// copies or substantial portions of the Software.
+
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+
+package com.appslandia.jspprocessor.impl;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.net.ConnectException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import com.appslandia.jspprocessor.utils.ValueUtils;
+
+/**
+ * Keeps a warm {@link JspEngine} (classes loaded, JIT-compiled code, layout and properties caches) and serves build requests on a loopback socket.
+ *
+ * <p>
+ * Request: the options as a properties text, terminated by closing the output. Response: INFO/WARN lines, then OK or ERROR message.
+ * </p>
+ *
+ * <p>
+ * Requests must carry the token the daemon writes at start to {@code ~/.appslandia-jsp-processor/daemon-<port>.token}, readable by its owner only, and the
+ * client's version; other requests are rejected. Unknown options are rejected by {@link JspProcessorCli#newProcessor(Properties)}.
+ * </p>
+ *
+ * @author <a href="mailto:haducloc13@gmail.com">Loc Ha</a>
+ *
+ */
+public class JspProcessorDaemon {
+
+	public static final int DEFAULT_PORT = 17900;
+
+	public static final String VERSION = ValueUtils.valueOrAlt(JspProcessorDaemon.class.getPackage().getImplementationVersion(), "dev");
+
+	static final String TOKEN_OPTION = "__token";
+	static final String VERSION_OPTION = "__version";
+
+	static final int CONNECT_TIMEOUT_MS = 500;
+	static final int READ_TIMEOUT_MS = 10000;
+
+	final int port;
+	final JspEngine engine;
+	final JspLogger logger;
+	final Path tokenDir;
+
+	// Builds of the same web content directory are serialized
+	final Map<String, Object> locks = new ConcurrentHashMap<>();
+	final ExecutorService executor = Executors.newCachedThreadPool();
+
+	volatile boolean stopped;
+	volatile String token;
+
+	int readTimeoutMs = READ_TIMEOUT_MS;
+
+	public JspProcessorDaemon(int port, JspLogger logger) {
+		this(port, new JspEngine(), logger);
+	}
+
+	public JspProcessorDaemon(int port, JspEngine engine, JspLogger logger) {
+		this(port, engine, logger, defaultTokenDir());
+	}
+
+	JspProcessorDaemon(int port, JspEngine engine, JspLogger logger, Path tokenDir) {
+		this.port = (port > 0) ? port : DEFAULT_PORT;
+		this.engine = engine;
+		this.logger = logger;
+		this.tokenDir = tokenDir;
+	}
+
+	public void run() throws IOException {
+		try (ServerSocket server = new ServerSocket(this.port, 50, InetAddress.getLoopbackAddress())) {
+			this.token = newToken();
+			Path tokenPath = saveToken(this.tokenDir, this.port, this.token);
+
+			this.logger.info("JSP processor daemon is listening (port=" + this.port + ", version=" + VERSION + ")");
+			try {
+				while (!this.stopped) {
+					Socket socket = server.accept();
+					this.executor.execute(() -> handle(socket, server));
+				}
+			} finally {
+				Files.deleteIfExists(tokenPath);
+			}
+		} catch (IOException ex) {
+			if (!this.stopped) {
+				throw ex;
+			}
+		} finally {
+			this.executor.shutdown();
+		}
+		this.logger.info("JSP processor daemon is stopped (port=" + this.port + ")");
+	}
+
+	void handle(Socket socket, ServerSocket server) {
+		try (Socket s = socket) {
+			// A client that never ends its request can't hold a thread
+			s.setSoTimeout(this.readTimeoutMs);
+
+			Properties options = new Properties();
+			options.load(new InputStreamReader(s.getInputStream(), StandardCharsets.UTF_8));
+
+			PrintWriter out = new PrintWriter(new OutputStreamWriter(s.getOutputStream(), StandardCharsets.UTF_8), true);
+
+			// Token & version
+			String token = (String) options.remove(TOKEN_OPTION);
+			String version = (String) options.remove(VERSION_OPTION);
+
+			if ((token == null) || !MessageDigest.isEqual(token.getBytes(StandardCharsets.US_ASCII), this.token.getBytes(StandardCharsets.US_ASCII))) {
+				this.logger.warn("Request is rejected, token is invalid (remote=" + s.getRemoteSocketAddress() + ")");
+				out.println("ERROR Daemon token is invalid (port=" + this.port + ")");
+				return;
+			}
+			if (!VERSION.equals(version)) {
+				out.println("ERROR Daemon version doesn't match, restart the daemon (daemonVersion=" + VERSION + ", clientVersion=" + version + ")");
+				return;
+			}
+
+			if (Boolean.parseBoolean(options.getProperty("stop"))) {
+				out.println("OK");
+				this.stopped = true;
+				server.close();
+				return;
+			}
+			try {
+				long start = System.currentTimeMillis();
+				JspProcessor processor = JspProcessorCli.newProcessor(options).engine(this.engine);
+
+				synchronized (this.locks.computeIfAbsent(processor.appDir.getAbsolutePath(), k -> new Object())) {
+					processor.logger(new JspLogger() {
+
+						@Override
+						public void info(String message) {
+							out.println("INFO " + message);
+						}
+
+						@Override
+						public void warn(String message) {
+							out.println("WARN " + message);
+						}
+					}).process();
+				}
+				out.println("INFO Processed by daemon (webContentDir=" + options.getProperty("webContentDir") + ", timeMs=" + (System.currentTimeMillis() - start) + ")");
+				out.println("OK");
+
+			} catch (Exception ex) {
+				out.println("ERROR " + ex.getMessage());
+			}
+		} catch (IOException ex) {
+			this.logger.warn("Couldn't handle request: " + ex.getMessage());
+		}
+	}
+
+	// Token: readable by the daemon's owner only, so other local users can't submit requests
+
+	static Path defaultTokenDir() {
+		return new File(System.getProperty("user.home")).toPath().resolve(".appslandia-jsp-processor");
+	}
+
+	static Path toTokenPath(Path tokenDir, int port) {
+		return tokenDir.resolve("daemon-" + port + ".token");
+	}
+
+	static String newToken() {
+		byte[] bytes = new byte[32];
+		new SecureRandom().nextBytes(bytes);
+
+		StringBuilder sb = new StringBuilder(64);
+		for (byte b : bytes) {
+			sb.append(String.format("%02x", b & 0xff));
+		}
+		return sb.toString();
+	}
+
+	static Path saveToken(Path tokenDir, int port, String token) throws IOException {
+		boolean posix = FileSystems.getDefault().supportedFileAttributeViews().contains("posix");
+
+		if (!Files.exists(tokenDir)) {
+			if (posix) {
+				Files.createDirectories(tokenDir, PosixFilePermissions.asFileAttribute(PosixFilePermissions.fromString("rwx------")));
+			} else {
+				Files.createDirectories(tokenDir);
+			}
+		}
+
+		// Written to a temporary file then moved, so clients never read a partial token
+		Path tokenPath = toTokenPath(tokenDir, port);
+		Path tempPath = tokenPath.resolveSibling(tokenPath.getFileName() + ".tmp");
+		Files.deleteIfExists(tempPath);
+		if (posix) {
+			Files.createFile(tempPath, PosixFilePermissions.asFileAttribute(PosixFilePermissions.fromString("rw-------")));
+		} else {
+			Files.createFile(tempPath);
+			File file = tempPath.toFile();
+			file.setReadable(false, false);
+			file.setReadable(true, true);
+			file.setWritable(false, false);
+			file.setWritable(true, true);
+		}
+		Files.write(tempPath, token.getBytes(StandardCharsets.US_ASCII));
+		Files.move(tempPath, tokenPath, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+		return tokenPath;
+	}
+
+	static String loadToken(Path tokenDir, int port) throws IOException {
+		Path tokenPath = toTokenPath(tokenDir, port);
+		if (!Files.isReadable(tokenPath)) {
+			return null;
+		}
+		return new String(Files.readAllBytes(tokenPath), StandardCharsets.US_ASCII).trim();
+	}
+
+	public static boolean submit(int port, Properties options, JspLogger logger) throws IOException {
+		return submit(defaultTokenDir(), port, options, logger);
+	}
+
+	static boolean submit(Path tokenDir, int port, Properties options, JspLogger logger) throws IOException {
+		// No token -> No daemon of this user
+		String token = loadToken(tokenDir, port);
+		if (token == null) {
+			return false;
+		}
+
+		try (Socket socket = new Socket()) {
+			try {
+				socket.connect(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), CONNECT_TIMEOUT_MS);
+			} catch (ConnectException | SocketTimeoutException ex) {
+				return false;
+			}
+
+			Properties request = new Properties();
+			request.putAll(options);
+			request.setProperty(TOKEN_OPTION, token);
+			request.setProperty(VERSION_OPTION, VERSION);
+
+			Writer w = new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8);
+			request.store(w, null);
+			w.flush();
+			socket.shutdownOutput();
+
+			BufferedReader br = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+			String line = null;
+			while ((line = br.readLine()) != null) {
+				if (line.startsWith("INFO ")) {
+					logger.info(line.substring(5));
+
+				} else if (line.startsWith("WARN ")) {
+					logger.warn(line.substring(5));
+
+				} else if (line.equals("OK")) {
+					return true;
+
+				} else if (line.startsWith("ERROR ")) {
+					throw new IllegalStateException(line.substring(6));
+				}
+			}
+			throw new IllegalStateException("Daemon response is invalid (port=" + port + ")");
+		}
+	}
+
+	public static boolean stop(int port) throws IOException {
+		return stop(defaultTokenDir(), port);
+	}
+
+	static boolean stop(Path tokenDir, int port) throws IOException {
+		Properties options = new Properties();
+		options.setProperty("stop", Boolean.TRUE.toString());
+		return submit(tokenDir, (port > 0) ? port : DEFAULT_PORT, options, JspLogger.NONE);
+	}
+}
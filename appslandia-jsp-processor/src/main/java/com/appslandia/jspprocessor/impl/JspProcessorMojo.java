@@ -0,0 +1,232 @@
+// The MIT License (MIT)
+// Copyright © 2015 AppsLandia. All rights reserved.
+
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+
+// The above copyright notice and this permission notice shall be included in all
+// copies or substantial portions of the Software.
+
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+
+package com.appslandia.jspprocessor.impl;
+
+import java.io.File;
+import java.util.List;
+import java.util.Properties;
+import java.util.stream.Collectors;
+
+import org.apache.maven.plugin.AbstractMojo;
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugin.MojoFailureException;
+import org.apache.maven.plugins.annotations.LifecyclePhase;
+import org.apache.maven.plugins.annotations.Mojo;
+import org.apache.maven.plugins.annotations.Parameter;
+
+/**
+ *
+ * @author <a href="mailto:haducloc13@gmail.com">Loc Ha</a>
+ *
+ */
+@Mojo(name = "process-jsp", defaultPhase = LifecyclePhase.GENERATE_SOURCES)
+public class JspProcessorMojo extends AbstractMojo {
+
+	@Parameter(property = "skip", defaultValue = "false")
+	private boolean skip;
+
+	@Parameter(property = "minimize", defaultValue = "false")
+	private boolean minimize;
+
+	@Parameter(property = "jspDir", defaultValue = "/WEB-INF/__jsp")
+	protected String jspDir;
+
+	@Parameter(property = "genDirName", defaultValue = "jsp")
+	protected String genDirName;
+
+	@Parameter(property = "keepPrevious", defaultValue = "false")
+	protected boolean keepPrevious;
+
+	@Parameter(property = "pageEncoding")
+	protected String pageEncoding;
+
+	@Parameter(property = "manifest", defaultValue = "false")
+	protected boolean manifest;
+
+	@Parameter(property = "hitCountsFile")
+	protected File hitCountsFile;
+
+	@Parameter(property = "gzip", defaultValue = "false")
+	protected boolean gzip;
+
+	@Parameter(property = "gzipMinSize", defaultValue = "1024")
+	protected int gzipMinSize;
+
+	@Parameter(property = "gzipTypes", defaultValue = "css,js,svg,html,htm,txt,json,xml")
+	protected String gzipTypes;
+
+	@Parameter(property = "gzipCacheDir", defaultValue = "${project.build.directory}/jsp-processor/gzip")
+	protected File gzipCacheDir;
+
+	@Parameter(property = "methodSizeWarn", defaultValue = "8000")
+	protected int methodSizeWarn;
+
+	@Parameter(property = "methodSizeLimit", defaultValue = "65535")
+	protected int methodSizeLimit;
+
+	@Parameter(property = "splitLargeMethods", defaultValue = "false")
+	protected boolean splitLargeMethods;
+
+	@Parameter(property = "mappedFile", defaultValue = "true")
+	protected boolean mappedFile;
+
+	@Parameter(property = "shareSections", defaultValue = "false")
+	protected boolean shareSections;
+
+	@Parameter(property = "sharedSectionMinSize", defaultValue = "256")
+	protected int sharedSectionMinSize;
+
+	@Parameter(property = "sharedLayouts", defaultValue = "false")
+	protected boolean sharedLayouts;
+
+	@Parameter(property = "inlineMaxSize", defaultValue = "0")
+	protected int inlineMaxSize;
+
+	@Parameter(property = "maxInFlightPages", defaultValue = "0")
+	protected int maxInFlightPages;
+
+	@Parameter(property = "cacheMaxSize", defaultValue = "16777216")
+	protected int cacheMaxSize;
+
+	@Parameter(property = "assetVersioning", defaultValue = "false")
+	protected boolean assetVersioning;
+
+	@Parameter(property = "assetTypes", defaultValue = "css,js,png,jpg,jpeg,gif,svg,webp,ico,woff,woff2,ttf")
+	protected String assetTypes;
+
+	@Parameter
+	protected List<JspVariant> variants;
+
+	@Parameter(property = "daemonPort", defaultValue = "0")
+	protected int daemonPort;
+
+	@Parameter(property = "webContentDir", defaultValue = "${project.basedir}/WebContent")
+	protected File webContentDir;
+
+	@Override
+	public void execute() throws MojoExecutionException, MojoFailureException {
+		getLog().info("Invoking com.appslandia.jspprocessor.impl.JspProcessorMojo.execute()");
+
+		if (this.skip) {
+			getLog().info("Skip flag is on, will skip goal.");
+			return;
+		}
+
+		getLog().info("webContentDir: " + this.webContentDir.getAbsolutePath());
+		getLog().info("jspDir: " + this.jspDir);
+		getLog().info("genDirName: " + this.genDirName);
+		getLog().info("keepPrevious: " + this.keepPrevious);
+		getLog().info("pageEncoding: " + this.pageEncoding);
+		getLog().info("minimize: " + this.minimize);
+		getLog().info("manifest: " + this.manifest);
+		getLog().info("hitCountsFile: " + this.hitCountsFile);
+		getLog().info("gzip: " + this.gzip);
+		getLog().info("methodSizeWarn: " + this.methodSizeWarn);
+		getLog().info("methodSizeLimit: " + this.methodSizeLimit);
+		getLog().info("splitLargeMethods: " + this.splitLargeMethods);
+		getLog().info("mappedFile: " + this.mappedFile);
+		getLog().info("shareSections: " + this.shareSections);
+		getLog().info("sharedLayouts: " + this.sharedLayouts);
+		getLog().info("inlineMaxSize: " + this.inlineMaxSize);
+		getLog().info("maxInFlightPages: " + this.maxInFlightPages);
+		getLog().info("cacheMaxSize: " + this.cacheMaxSize);
+		getLog().info("assetVersioning: " + this.assetVersioning);
+		if (this.variants != null) {
+			this.variants.forEach(v -> getLog().info("variant: " + v.getName() + " (properties=" + v.getProperties() + ", genDirName=" + v.getGenDirName() + ")"));
+		}
+		getLog().info("daemonPort: " + this.daemonPort);
+
+		try {
+			Properties options = toOptions();
+
+			// Daemon running?
+			if ((this.daemonPort <= 0) || !JspProcessorDaemon.submit(this.daemonPort, options, newLogger())) {
+				JspProcessorCli.newProcessor(options).logger(newLogger()).process();
+			}
+
+		} catch (Exception ex) {
+			throw new MojoExecutionException(ex.getMessage(), ex);
+		}
+
+		getLog().info("Done com.appslandia.jspprocessor.impl.JspProcessorMojo.execute()");
+	}
+
+	protected Properties toOptions() {
+		Properties options = new Properties();
+		options.setProperty("webContentDir", this.webContentDir.getAbsolutePath());
+		options.setProperty("jspDir", this.jspDir);
+		options.setProperty("genDirName", this.genDirName);
+		options.setProperty("keepPrevious", String.valueOf(this.keepPrevious));
+		if (this.pageEncoding != null) {
+			options.setProperty("pageEncoding", this.pageEncoding);
+		}
+		options.setProperty("minimize", String.valueOf(this.minimize));
+		options.setProperty("manifest", String.valueOf(this.manifest));
+		if (this.hitCountsFile != null) {
+			options.setProperty("hitCountsFile", this.hitCountsFile.getAbsolutePath());
+		}
+		options.setProperty("gzip", String.valueOf(this.gzip));
+		options.setProperty("gzipMinSize", String.valueOf(this.gzipMinSize));
+		options.setProperty("gzipTypes", this.gzipTypes);
+		options.setProperty("gzipCacheDir", this.gzipCacheDir.getAbsolutePath());
+		options.setProperty("methodSizeWarn", String.valueOf(this.methodSizeWarn));
+		options.setProperty("methodSizeLimit", String.valueOf(this.methodSizeLimit));
+		options.setProperty("splitLargeMethods", String.valueOf(this.splitLargeMethods));
+		options.setProperty("mappedFile", String.valueOf(this.mappedFile));
+		options.setProperty("shareSections", String.valueOf(this.shareSections));
+		options.setProperty("sharedSectionMinSize", String.valueOf(this.sharedSectionMinSize));
+		options.setProperty("sharedLayouts", String.valueOf(this.sharedLayouts));
+		options.setProperty("inlineMaxSize", String.valueOf(this.inlineMaxSize));
+		options.setProperty("maxInFlightPages", String.valueOf(this.maxInFlightPages));
+		options.setProperty("cacheMaxSize", String.valueOf(this.cacheMaxSize));
+		options.setProperty("assetVersioning", String.valueOf(this.assetVersioning));
+		options.setProperty("assetTypes", this.assetTypes);
+
+		if ((this.variants != null) && !this.variants.isEmpty()) {
+			JspVariant.assertNames(this.variants);
+			options.setProperty("variants", this.variants.stream().map(v -> v.getName()).collect(Collectors.joining(",")));
+			for (JspVariant variant : this.variants) {
+				if (variant.getProperties() != null) {
+					options.setProperty("variant." + variant.getName() + ".properties", variant.getProperties());
+				}
+				if (variant.getGenDirName() != null) {
+					options.setProperty("variant." + variant.getName() + ".genDirName", variant.getGenDirName());
+				}
+			}
+		}
+		return options;
+	}
+
+	protected JspLogger newLogger() {
+		return new JspLogger() {
+
+			@Override
+			public void info(String message) {
+				getLog().info(message);
+			}
+
+			@Override
+			public void warn(String message) {
+				getLog().warn(message);
+			}
+		};
+	}
+}
@@ -0,0 +1,96 @@
+// The MIT License (MIT)
+// Copyright © 2015 AppsLandia. All rights reserved.
+
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+
+// The above copyright notice and this permission notice shall be included in all
+// copies or substantial portions of the Software.
+
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+
+package com.appslandia.jspprocessor.impl;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+/**
+ * An output of the same __jsp directory rendered with a properties overlay, e.g. per brand or environment.
+ *
+ * <p>
+ * The properties file is resolved against the __config directory; its variables override the page and layout variables. The output directory defaults to
+ * {genDirName}_{name}.
+ * </p>
+ *
+ * <p>
+ * Names are letters, digits, '_' and '-', so they can be passed as variants=name1,name2 and variant.{name}.{option} options.
+ * </p>
+ *
+ * @author <a href="mailto:haducloc13@gmail.com">Loc Ha</a>
+ *
+ */
+public class JspVariant {
+
+	static final Pattern NAME_PATTERN = Pattern.compile("[\\w-]+");
+
+	private String name;
+	private String properties;
+	private String genDirName;
+
+	public JspVariant() {
+	}
+
+	public JspVariant(String name, String properties, String genDirName) {
+		this.name = name;
+		this.properties = properties;
+		this.genDirName = genDirName;
+	}
+
+	public String getName() {
+		return this.name;
+	}
+
+	public void setName(String name) {
+		this.name = name;
+	}
+
+	public String getProperties() {
+		return this.properties;
+	}
+
+	public void setProperties(String properties) {
+		this.properties = properties;
+	}
+
+	public String getGenDirName() {
+		return this.genDirName;
+	}
+
+	public void setGenDirName(String genDirName) {
+		this.genDirName = genDirName;
+	}
+
+	static void assertNames(List<JspVariant> variants) {
+		Set<String> names = new HashSet<>();
+		for (JspVariant variant : variants) {
+			String name = variant.getName();
+			if ((name == null) || !NAME_PATTERN.matcher(name).matches()) {
+				throw new IllegalArgumentException("Variant name is invalid (variant=" + name + ")");
+			}
+			if (!names.add(name)) {
+				throw new IllegalArgumentException("Variant name is duplicated (variant=" + name + ")");
+			}
+		}
+	}
+}
@@ -0,0 +1,130 @@
+// The MIT License (MIT)
+// Copyright © 2015 AppsLandia. All rights reserved.
+
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+
+// The above copyright notice and this permission notice shall be included in all
+// copies or substantial portions of the Software.
+
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+
+package com.appslandia.jspprocessor.impl;
+
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Estimates the bytecode size of the {@code _jspService} method generated by Jasper for a JSP source.
+ *
+ * <p>
+ * Template text becomes {@code out.write} calls: one per line with Jasper's default mappedfile=true, one per text block otherwise. Each expression becomes an
+ * evaluation call, scriptlets are copied as Java code and custom tags are mostly generated as separate {@code _jspx_meth} methods. Static includes are inlined by the container, so the sources of a page and its included body must be
+ * summed.
+ * </p>
+ *
+ * @author <a href="mailto:haducloc13@gmail.com">Loc Ha</a>
+ *
+ */
+public class MethodSizeEstimator {
+
+	// HotSpot -XX:HugeMethodLimit
+	public static final int HUGE_METHOD_LIMIT = 8000;
+
+	// JVM code size limit
+	public static final int CODE_SIZE_LIMIT = 65535;
+
+	static final int SERVICE_OVERHEAD = 300;
+	static final int TEXT_WRITE_SIZE = 8;
+	static final int EXPRESSION_SIZE = 25;
+	static final int CUSTOM_TAG_SIZE = 20;
+	static final int STANDARD_ACTION_SIZE = 40;
+
+	// <%-- --%>, <%@ %>, <%! %>, <%= %>, <% %>, ${}, #{}, <prefix:tag
+	static final Pattern ELEMENT_PATTERN = Pattern.compile("<%--.*?--%>|<%.*?%>|[$#]\\{[^}]*}|<[a-zA-Z_][\\w.-]*:[\\w.-]+", Pattern.DOTALL);
+
+	public static int estimateService(List<String> source) {
+		return estimateService(source, true);
+	}
+
+	public static int estimateService(List<String> source, boolean mappedFile) {
+		return SERVICE_OVERHEAD + estimate(source, mappedFile);
+	}
+
+	public static int estimate(List<String> source) {
+		return estimate(source, true);
+	}
+
+	public static int estimate(List<String> source, boolean mappedFile) {
+		return estimate(String.join("\n", source), mappedFile);
+	}
+
+	public static int estimate(String source) {
+		return estimate(source, true);
+	}
+
+	public static int estimate(String source, boolean mappedFile) {
+		int size = 0;
+		int textStart = 0;
+
+		Matcher matcher = ELEMENT_PATTERN.matcher(source);
+		while (matcher.find()) {
+			size += TEXT_WRITE_SIZE * countWrites(source, textStart, matcher.start(), mappedFile);
+			textStart = matcher.end();
+
+			String element = matcher.group();
+			if (element.startsWith("<%--") || element.startsWith("<%@") || element.startsWith("<%!")) {
+				continue;
+			}
+			if (element.startsWith("<%=")) {
+				size += TEXT_WRITE_SIZE + (element.length() - 5) / 2;
+
+			} else if (element.startsWith("<%")) {
+				size += (element.length() - 4) / 2;
+
+			} else if (element.startsWith("<jsp:")) {
+				size += STANDARD_ACTION_SIZE;
+
+			} else if (element.startsWith("<")) {
+				size += CUSTOM_TAG_SIZE;
+			} else {
+				size += EXPRESSION_SIZE;
+			}
+		}
+		size += TEXT_WRITE_SIZE * countWrites(source, textStart, source.length(), mappedFile);
+		return size;
+	}
+
+	// mappedFile: one write per non-blank line of the text block
+
+	static int countWrites(String source, int start, int end, boolean mappedFile) {
+		int writes = 0;
+		boolean lineText = false;
+
+		for (int i = start; i < end; i++) {
+			char c = source.charAt(i);
+			if (c == '\n') {
+				if (lineText) {
+					writes++;
+					lineText = false;
+				}
+			} else if (!Character.isWhitespace(c)) {
+				if (!mappedFile) {
+					return 1;
+				}
+				lineText = true;
+			}
+		}
+		return lineText ? writes + 1 : writes;
+	}
+}
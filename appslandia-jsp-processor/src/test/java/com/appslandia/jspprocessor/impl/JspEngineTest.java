@@ -0,0 +1,171 @@
+package com.appslandia.jspprocessor.impl;
+
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class JspEngineTest {
+
+	@Rule
+	public TemporaryFolder temp = new TemporaryFolder();
+
+	Path newFile(String name, String content) throws Exception {
+		return TestApps.write(this.temp.getRoot().toPath().resolve(name), content);
+	}
+
+	static String read(Path path, Charset cs) throws Exception {
+		return new String(Files.readAllBytes(path), cs);
+	}
+
+	@Test
+	public void test_loadCached() throws Exception {
+		JspEngine engine = new JspEngine();
+		Path path = newFile("a.css", "p{}");
+		AtomicInteger loads = new AtomicInteger();
+
+		Assert.assertEquals("p{}", engine.loadCached(engine.inlineCache, path, StandardCharsets.UTF_8, (p, c) -> {
+			loads.incrementAndGet();
+			return TestApps.read(p);
+		}));
+		Assert.assertEquals("p{}", engine.loadCached(engine.inlineCache, path, StandardCharsets.UTF_8, (p, c) -> {
+			loads.incrementAndGet();
+			return TestApps.read(p);
+		}));
+		Assert.assertEquals(1, loads.get());
+		Assert.assertEquals(40 + 2 * 3, engine.inlineCache.size);
+	}
+
+	@Test
+	public void test_loadCached_lastModified() throws Exception {
+		JspEngine engine = new JspEngine();
+		Path path = newFile("a.css", "p{}");
+		Assert.assertEquals("p{}", engine.loadCached(engine.inlineCache, path, StandardCharsets.UTF_8, JspEngineTest::read));
+
+		TestApps.write(path, "div{}");
+		Files.setLastModifiedTime(path, FileTime.fromMillis(Files.getLastModifiedTime(path).toMillis() + 2000));
+
+		Assert.assertEquals("div{}", engine.loadCached(engine.inlineCache, path, StandardCharsets.UTF_8, JspEngineTest::read));
+		Assert.assertEquals(1, engine.inlineCache.entries.size());
+		Assert.assertEquals(40 + 2 * 5, engine.inlineCache.size);
+	}
+
+	@Test
+	public void test_loadCached_evict() throws Exception {
+		// Fits 2 entries of 46 bytes
+		JspEngine engine = new JspEngine(100);
+		Path a = newFile("a.css", "p{}");
+		Path b = newFile("b.css", "b{}");
+		Path c = newFile("c.css", "c{}");
+
+		engine.loadCached(engine.inlineCache, a, StandardCharsets.UTF_8, JspEngineTest::read);
+		engine.loadCached(engine.inlineCache, b, StandardCharsets.UTF_8, JspEngineTest::read);
+		engine.loadCached(engine.inlineCache, a, StandardCharsets.UTF_8, JspEngineTest::read);
+		engine.loadCached(engine.inlineCache, c, StandardCharsets.UTF_8, JspEngineTest::read);
+
+		// b is the least recently used
+		Assert.assertEquals(2, engine.inlineCache.entries.size());
+		Assert.assertTrue(engine.inlineCache.entries.containsKey(new JspEngine.CacheKey(a.toAbsolutePath().normalize(), StandardCharsets.UTF_8)));
+		Assert.assertFalse(engine.inlineCache.entries.containsKey(new JspEngine.CacheKey(b.toAbsolutePath().normalize(), StandardCharsets.UTF_8)));
+		Assert.assertEquals(2 * 46, engine.inlineCache.size);
+	}
+
+	@Test
+	public void test_loadCached_failed() throws Exception {
+		JspEngine engine = new JspEngine();
+		Path path = newFile("a.css", "p{}");
+		try {
+			engine.loadCached(engine.inlineCache, path, StandardCharsets.UTF_8, (p, c) -> {
+				throw new IOException("failed");
+			});
+			Assert.fail();
+		} catch (IOException ex) {
+			Assert.assertEquals("failed", ex.getMessage());
+		}
+		Assert.assertTrue(engine.inlineCache.entries.isEmpty());
+		Assert.assertEquals("p{}", engine.loadCached(engine.inlineCache, path, StandardCharsets.UTF_8, JspEngineTest::read));
+	}
+
+	@Test
+	public void test_loadCached_concurrent() throws Exception {
+		JspEngine engine = new JspEngine();
+		Path a = newFile("a.css", "p{}");
+		Path b = newFile("b.css", "b{}");
+
+		CountDownLatch loadingA = new CountDownLatch(1);
+		CountDownLatch loadedB = new CountDownLatch(1);
+		AtomicInteger loadsA = new AtomicInteger();
+
+		ExecutorService executor = Executors.newFixedThreadPool(3);
+		try {
+			// a is loaded once, while its load is blocked b can be loaded
+			Future<String> a1 = executor.submit(() -> engine.loadCached(engine.inlineCache, a, StandardCharsets.UTF_8, (p, c) -> {
+				loadsA.incrementAndGet();
+				loadingA.countDown();
+				Assert.assertTrue(loadedB.await(5, TimeUnit.SECONDS));
+				return TestApps.read(p);
+			}));
+			Assert.assertTrue(loadingA.await(5, TimeUnit.SECONDS));
+
+			Future<String> a2 = executor.submit(() -> engine.loadCached(engine.inlineCache, a, StandardCharsets.UTF_8, (p, c) -> {
+				loadsA.incrementAndGet();
+				return TestApps.read(p);
+			}));
+			Assert.assertEquals("b{}", executor.submit(() -> engine.loadCached(engine.inlineCache, b, StandardCharsets.UTF_8, JspEngineTest::read)).get(5, TimeUnit.SECONDS));
+			loadedB.countDown();
+
+			Assert.assertEquals("p{}", a1.get(5, TimeUnit.SECONDS));
+			Assert.assertEquals("p{}", a2.get(5, TimeUnit.SECONDS));
+			Assert.assertEquals(1, loadsA.get());
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	@Test
+	public void test_loadCached_charset() throws Exception {
+		JspEngine engine = new JspEngine();
+		Path path = newFile("a.css", "p{content:\"caf\u00e9\"}");
+
+		Assert.assertEquals("p{content:\"caf\u00c3\u00a9\"}", engine.loadCached(engine.inlineCache, path, StandardCharsets.ISO_8859_1, JspEngineTest::read));
+		Assert.assertEquals("p{content:\"caf\u00e9\"}", engine.loadCached(engine.inlineCache, path, StandardCharsets.UTF_8, JspEngineTest::read));
+		Assert.assertEquals(2, engine.inlineCache.entries.size());
+	}
+
+	@Test
+	public void test_process_sharedEngine_pageEncoding() throws Exception {
+		Path appDir = TestApps.newApp(this.temp, "app");
+		TestApps.write(TestApps.configPath(appDir).resolve("layout1.jsp"), "<p>caf\u00e9</p>", "<!-- @doBody -->");
+		TestApps.write(TestApps.jspPath(appDir).resolve("index.jsp"), "<!-- @variable __layout=layout1 -->");
+
+		JspEngine engine = new JspEngine();
+		new JspProcessor(appDir.toString()).engine(engine).pageEncoding("ISO-8859-1").process();
+		new JspProcessor(appDir.toString()).engine(engine).pageEncoding("UTF-8").process();
+
+		Assert.assertTrue(TestApps.read(appDir.resolve("WEB-INF/jsp/index.jsp")).contains("<p>caf\u00e9</p>"));
+	}
+
+	@Test
+	public void test_holderPatterns_bounded() {
+		JspEngine engine = new JspEngine();
+		for (int i = 0; i <= JspEngine.HOLDER_PATTERNS_MAX_SIZE; i++) {
+			engine.getHolderPatterns("name" + i);
+		}
+		Assert.assertEquals(JspEngine.HOLDER_PATTERNS_MAX_SIZE, engine.holderPatterns.size());
+		Assert.assertFalse(engine.holderPatterns.containsKey("name0"));
+		Assert.assertSame(engine.getHolderPatterns("name1"), engine.getHolderPatterns("name1"));
+	}
+}
@@ -0,0 +1,101 @@
+package com.appslandia.jspprocessor.impl;
+
+import java.io.InputStream;
+import java.io.StringReader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class JspProcessorAssetsTest {
+
+	@Rule
+	public TemporaryFolder temp = new TemporaryFolder();
+
+	static String replace(String line) {
+		Map<String, String> versions = new HashMap<>();
+		versions.put("/css/app.css", "abc");
+		versions.put("/WEB-INF/app.css", "def");
+
+		List<String> source = new ArrayList<>(Arrays.asList(line));
+		new JspProcessor(".").replaceAssetUrls(source, versions);
+		return source.get(0);
+	}
+
+	@Test
+	public void test_replaceAssetUrls() throws Exception {
+		Assert.assertEquals("<link href=\"/css/app.css?v=abc\">", replace("<link href=\"/css/app.css\">"));
+		Assert.assertEquals("<link HREF = '/css/app.css?v=abc'>", replace("<link HREF = '/css/app.css'>"));
+		Assert.assertEquals("<link href=\"${ctx}/css/app.css?v=abc\">", replace("<link href=\"${ctx}/css/app.css\">"));
+		Assert.assertEquals("<link href=\"${pageContext.request.contextPath}/css/app.css?v=abc\">",
+				replace("<link href=\"${pageContext.request.contextPath}/css/app.css\">"));
+		Assert.assertEquals("<a href=\"/css/app.css?v=abc#top\">", replace("<a href=\"/css/app.css#top\">"));
+	}
+
+	@Test
+	public void test_replaceAssetUrls_skipped() throws Exception {
+		for (String line : new String[] { "<link href=\"/css/app.css?v=1\">", "<link href=\"//cdn.example.com/css/app.css\">",
+				"<link href=\"${ctx}//css/app.css\">", "<link href=\"css/app.css\">", "<link href=\"/css/other.css\">" }) {
+			Assert.assertEquals(line, replace(line));
+		}
+	}
+
+	@Test
+	public void test_process_webInfExcluded() throws Exception {
+		Path appDir = TestApps.newApp(this.temp, "app");
+		TestApps.write(appDir.resolve("css/app.css"), "p{}");
+		TestApps.write(appDir.resolve("WEB-INF/private.css"), "p{}");
+		TestApps.write(appDir.resolve("META-INF/private.css"), "p{}");
+		TestApps.write(TestApps.jspPath(appDir).resolve("index.jsp"), "<link href=\"${ctx}/css/app.css\">", "<link href=\"${ctx}/WEB-INF/private.css\">",
+				"<link href=\"${ctx}/META-INF/private.css\">");
+
+		new JspProcessor(appDir.toString()).assetVersioning(true).process();
+
+		String page = TestApps.read(appDir.resolve("WEB-INF/jsp/index.jsp"));
+		Assert.assertTrue(page.contains("<link href=\"${ctx}/css/app.css?v="));
+		Assert.assertTrue(page.contains("<link href=\"${ctx}/WEB-INF/private.css\">"));
+		Assert.assertTrue(page.contains("<link href=\"${ctx}/META-INF/private.css\">"));
+	}
+
+	@Test
+	public void test_process_manifest() throws Exception {
+		Path appDir = TestApps.newApp(this.temp, "app");
+		String[] names = { "/css/app.css", "/css/my app.css", "/css/a:b=c.css", "/css/#!.css" };
+		for (String name : names) {
+			TestApps.write(appDir.resolve(name.substring(1)), "p{}");
+		}
+		TestApps.write(TestApps.jspPath(appDir).resolve("index.jsp"), "<p>Home</p>");
+
+		new JspProcessor(appDir.toString()).assetVersioning(true).process();
+
+		Properties manifest = new Properties();
+		try (InputStream is = Files.newInputStream(appDir.resolve("WEB-INF/jsp/" + JspProcessor.ASSET_MANIFEST_FILE_NAME))) {
+			manifest.load(is);
+		}
+		Assert.assertEquals(names.length, manifest.size());
+		for (String name : names) {
+			Assert.assertTrue(name, manifest.getProperty(name).startsWith(name + "?v="));
+		}
+	}
+
+	@Test
+	public void test_escapeProperty() throws Exception {
+		Assert.assertEquals("\\ a\\ b\\=c\\:d", JspProcessor.escapeProperty(" a b=c:d", true));
+		Assert.assertEquals("\\ a b\\=c", JspProcessor.escapeProperty(" a b=c", false));
+		Assert.assertEquals("/caf\\u00E9\\\\", JspProcessor.escapeProperty("/caf\u00e9\\", true));
+
+		String key = "/css/my caf\u00e9 #1:a=b!.css";
+		Properties props = new Properties();
+		props.load(new StringReader(JspProcessor.escapeProperty(key, true) + "=" + JspProcessor.escapeProperty(" " + key, false)));
+		Assert.assertEquals(" " + key, props.getProperty(key));
+	}
+}
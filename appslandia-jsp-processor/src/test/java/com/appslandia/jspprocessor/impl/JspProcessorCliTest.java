@@ -0,0 +1,46 @@
+package com.appslandia.jspprocessor.impl;
+
+import java.util.Properties;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class JspProcessorCliTest {
+
+	@Test
+	public void test_assertKnownOptions() {
+		Properties options = new Properties();
+		options.setProperty("webContentDir", "WebContent");
+		options.setProperty("minimize", "true");
+		options.setProperty("variants", "brandA,brandB");
+		options.setProperty("variant.brandA.properties", "brandA.properties");
+		options.setProperty("variant.brandB.genDirName", "jsp_b");
+
+		JspProcessorCli.assertKnownOptions(options);
+	}
+
+	@Test
+	public void test_assertKnownOptions_unknown() {
+		Properties options = new Properties();
+		options.setProperty("minimise", "true");
+		try {
+			JspProcessorCli.assertKnownOptions(options);
+			Assert.fail();
+		} catch (IllegalArgumentException ex) {
+			Assert.assertEquals("Option is unknown (option=minimise)", ex.getMessage());
+		}
+	}
+
+	@Test
+	public void test_assertKnownOptions_undeclaredVariant() {
+		Properties options = new Properties();
+		options.setProperty("variants", "brandA");
+		options.setProperty("variant.brandC.properties", "brandC.properties");
+		try {
+			JspProcessorCli.assertKnownOptions(options);
+			Assert.fail();
+		} catch (IllegalArgumentException ex) {
+			Assert.assertEquals("Option is unknown (option=variant.brandC.properties)", ex.getMessage());
+		}
+	}
+}
@@ -0,0 +1,158 @@
+package com.appslandia.jspprocessor.impl;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class JspProcessorDaemonTest {
+
+	@Rule
+	public TemporaryFolder temp = new TemporaryFolder();
+
+	Path tokenDir;
+	int port;
+	Thread daemonThread;
+
+	@Before
+	public void startDaemon() throws Exception {
+		this.tokenDir = this.temp.newFolder("tokens").toPath();
+		try (ServerSocket s = new ServerSocket(0, 1, InetAddress.getLoopbackAddress())) {
+			this.port = s.getLocalPort();
+		}
+		JspProcessorDaemon daemon = new JspProcessorDaemon(this.port, new JspEngine(), JspLogger.NONE, this.tokenDir);
+		daemon.readTimeoutMs = 1000;
+		this.daemonThread = new Thread(() -> {
+			try {
+				daemon.run();
+			} catch (Exception ex) {
+				throw new IllegalStateException(ex);
+			}
+		});
+		this.daemonThread.setDaemon(true);
+		this.daemonThread.start();
+
+		Path tokenPath = JspProcessorDaemon.toTokenPath(this.tokenDir, this.port);
+		for (int i = 0; (i < 100) && !Files.exists(tokenPath); i++) {
+			Thread.sleep(50);
+		}
+		Assert.assertTrue(Files.exists(tokenPath));
+		if (FileSystems.getDefault().supportedFileAttributeViews().contains("posix")) {
+			Assert.assertEquals("rw-------", PosixFilePermissions.toString(Files.getPosixFilePermissions(tokenPath)));
+		}
+	}
+
+	@After
+	public void stopDaemon() throws Exception {
+		JspProcessorDaemon.stop(this.tokenDir, this.port);
+		this.daemonThread.join(5000);
+	}
+
+	List<String> send(Properties request) throws Exception {
+		List<String> lines = new ArrayList<>();
+		try (Socket socket = new Socket(InetAddress.getLoopbackAddress(), this.port)) {
+			Writer w = new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8);
+			request.store(w, null);
+			w.flush();
+			socket.shutdownOutput();
+
+			BufferedReader br = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+			String line = null;
+			while ((line = br.readLine()) != null) {
+				lines.add(line);
+			}
+		}
+		return lines;
+	}
+
+	Properties newBuild() throws Exception {
+		Path appDir = this.temp.newFolder("app").toPath();
+		Files.createDirectories(appDir.resolve("WEB-INF/__jsp/__config"));
+		Files.write(appDir.resolve("WEB-INF/__jsp/index.jsp"), "<p>Hello</p>".getBytes(StandardCharsets.UTF_8));
+
+		Properties options = new Properties();
+		options.setProperty("webContentDir", appDir.toString());
+		return options;
+	}
+
+	@Test
+	public void test_submit() throws Exception {
+		Properties options = newBuild();
+		Assert.assertTrue(JspProcessorDaemon.submit(this.tokenDir, this.port, options, JspLogger.NONE));
+		Assert.assertTrue(Files.exists(new File(options.getProperty("webContentDir"), "WEB-INF/jsp/index.jsp").toPath()));
+	}
+
+	@Test
+	public void test_noToken() throws Exception {
+		Properties request = newBuild();
+		request.setProperty("stop", "true");
+
+		Assert.assertTrue(send(request).get(0).startsWith("ERROR Daemon token is invalid"));
+		Assert.assertTrue(this.daemonThread.isAlive());
+	}
+
+	@Test
+	public void test_wrongToken() throws Exception {
+		Properties request = newBuild();
+		request.setProperty(JspProcessorDaemon.TOKEN_OPTION, "0123");
+		request.setProperty(JspProcessorDaemon.VERSION_OPTION, JspProcessorDaemon.VERSION);
+
+		Assert.assertTrue(send(request).get(0).startsWith("ERROR Daemon token is invalid"));
+	}
+
+	@Test
+	public void test_versionMismatch() throws Exception {
+		Properties request = newBuild();
+		request.setProperty(JspProcessorDaemon.TOKEN_OPTION, JspProcessorDaemon.loadToken(this.tokenDir, this.port));
+		request.setProperty(JspProcessorDaemon.VERSION_OPTION, "0.1");
+
+		Assert.assertTrue(send(request).get(0).startsWith("ERROR Daemon version doesn't match"));
+	}
+
+	@Test
+	public void test_unknownOption() throws Exception {
+		Properties options = newBuild();
+		options.setProperty("newOption", "true");
+		try {
+			JspProcessorDaemon.submit(this.tokenDir, this.port, options, JspLogger.NONE);
+			Assert.fail();
+		} catch (IllegalStateException ex) {
+			Assert.assertEquals("Option is unknown (option=newOption)", ex.getMessage());
+		}
+	}
+
+	@Test
+	public void test_stalledClient() throws Exception {
+		try (Socket stalled = new Socket(InetAddress.getLoopbackAddress(), this.port)) {
+			stalled.setSoTimeout(10000);
+
+			// Other requests are served, the stalled connection is closed after the read timeout
+			Assert.assertTrue(JspProcessorDaemon.submit(this.tokenDir, this.port, newBuild(), JspLogger.NONE));
+			Assert.assertEquals(-1, stalled.getInputStream().read());
+		}
+	}
+
+	@Test
+	public void test_noDaemon() throws Exception {
+		Assert.assertFalse(JspProcessorDaemon.submit(this.temp.newFolder("other").toPath(), this.port, new Properties(), JspLogger.NONE));
+	}
+}
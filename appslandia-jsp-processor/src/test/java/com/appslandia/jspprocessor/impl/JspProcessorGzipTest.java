@@ -0,0 +1,91 @@
+package com.appslandia.jspprocessor.impl;
+
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.util.Arrays;
+import java.util.zip.GZIPInputStream;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class JspProcessorGzipTest {
+
+	@Rule
+	public TemporaryFolder temp = new TemporaryFolder();
+
+	static String repeat(String s, int n) {
+		StringBuilder sb = new StringBuilder();
+		for (int i = 0; i < n; i++) {
+			sb.append(s);
+		}
+		return sb.toString();
+	}
+
+	static String gunzip(Path gzPath) throws Exception {
+		try (InputStream is = new GZIPInputStream(Files.newInputStream(gzPath))) {
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			byte[] buf = new byte[4096];
+			int n;
+			while ((n = is.read(buf)) != -1) {
+				out.write(buf, 0, n);
+			}
+			return new String(out.toByteArray(), StandardCharsets.UTF_8);
+		}
+	}
+
+	@Test
+	public void test_gzipFile_sameTimestampDifferentContent() throws Exception {
+		Path appDir = this.temp.newFolder("app").toPath();
+		Path sourcePath = appDir.resolve("WEB-INF/__jsp/app.css");
+		Path targetPath = appDir.resolve("WEB-INF/jsp/app.css");
+		Files.createDirectories(sourcePath.getParent());
+		Files.createDirectories(targetPath.getParent());
+
+		JspProcessor processor = new JspProcessor(appDir.toString()).gzip(true).gzipCacheDir(this.temp.newFolder("gzcache").toString());
+		FileTime lastModified = FileTime.fromMillis(1_500_000_000_000L);
+
+		String v1 = repeat("body{margin:0}\n", 100);
+		Files.write(sourcePath, v1.getBytes(StandardCharsets.UTF_8));
+		Files.setLastModifiedTime(sourcePath, lastModified);
+		processor.gzipFile(sourcePath, Arrays.asList(targetPath));
+		Assert.assertEquals(v1, gunzip(appDir.resolve("WEB-INF/jsp/app.css.gz")));
+
+		// cp -p: new content, same timestamp
+		String v2 = repeat("body{padding:0}\n", 100);
+		Files.write(sourcePath, v2.getBytes(StandardCharsets.UTF_8));
+		Files.setLastModifiedTime(sourcePath, lastModified);
+		processor.gzipFile(sourcePath, Arrays.asList(targetPath));
+		Assert.assertEquals(v2, gunzip(appDir.resolve("WEB-INF/jsp/app.css.gz")));
+	}
+
+	@Test
+	public void test_gzipFile_cacheReused() throws Exception {
+		Path appDir = this.temp.newFolder("app").toPath();
+		Path sourcePath = appDir.resolve("app.js");
+		Path targetPath = appDir.resolve("out/app.js");
+		Files.createDirectories(targetPath.getParent());
+		Path cacheDir = this.temp.newFolder("gzcache").toPath();
+
+		JspProcessor processor = new JspProcessor(appDir.toString()).gzip(true).gzipCacheDir(cacheDir.toString());
+		String js = repeat("var a = 1;\n", 100);
+		Files.write(sourcePath, js.getBytes(StandardCharsets.UTF_8));
+		processor.gzipFile(sourcePath, Arrays.asList(targetPath));
+
+		// Marker in the cached .gz: served while the content is unchanged
+		Path cachePath = cacheDir.resolve("app.js.gz");
+		Assert.assertTrue(Files.exists(cachePath));
+		Files.write(appDir.resolve("marker.js"), repeat("var b = 2;\n", 100).getBytes(StandardCharsets.UTF_8));
+		processor.gzipFile(appDir.resolve("marker.js"), Arrays.asList(appDir.resolve("out/marker.js")));
+		Files.copy(cacheDir.resolve("marker.js.gz"), cachePath, StandardCopyOption.REPLACE_EXISTING);
+
+		processor.gzipFile(sourcePath, Arrays.asList(targetPath));
+		Assert.assertEquals(repeat("var b = 2;\n", 100), gunzip(appDir.resolve("out/app.js.gz")));
+	}
+}
@@ -0,0 +1,81 @@
+package com.appslandia.jspprocessor.impl;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class JspProcessorInlineTest {
+
+	@Rule
+	public TemporaryFolder temp = new TemporaryFolder();
+
+	Path appDir;
+	JspProcessor processor;
+
+	@Before
+	public void initApp() throws Exception {
+		this.appDir = TestApps.newApp(this.temp, "app");
+
+		TestApps.write(this.appDir.resolve("css/app.css"), "p{color:red}");
+		TestApps.write(this.appDir.resolve("css/end.css"), "p{content:\"</STYLE>\"}");
+		TestApps.write(this.appDir.resolve("WEB-INF/web.xml"), "<web-app/>");
+		TestApps.write(this.appDir.resolve("WEB-INF/private.css"), "p{color:blue}");
+		TestApps.write(this.temp.getRoot().toPath().resolve("secret.css"), "p{color:green}");
+
+		this.processor = new JspProcessor(this.appDir.toString()).inlineMaxSize(1024);
+	}
+
+	List<String> inline(String line) throws Exception {
+		List<String> source = new ArrayList<>(Arrays.asList(line));
+		this.processor.inlineAssets(source);
+		return source;
+	}
+
+	@Test
+	public void test_inline() throws Exception {
+		Assert.assertEquals("<style>p{color:red}</style>", inline("<!-- @inline /css/app.css -->").get(0));
+		Assert.assertEquals("<style>p{color:red}</style>", inline("<!-- @inline /css/../css/app.css -->").get(0));
+	}
+
+	@Test
+	public void test_inline_notPublic() throws Exception {
+		for (String path : new String[] { "/../secret.css", "/css/../../secret.css", "/WEB-INF/web.xml", "/web-inf/web.xml", "/css/../WEB-INF/web.xml", "/" }) {
+			try {
+				inline("<!-- @inline " + path + " -->");
+				Assert.fail(path);
+			} catch (IllegalArgumentException ex) {
+				Assert.assertEquals("@inline path must be a public file of the web application (path=" + path + ")", ex.getMessage());
+			}
+		}
+	}
+
+	@Test
+	public void test_inline_closingTag() throws Exception {
+		try {
+			inline("<!-- @inline /css/end.css -->");
+			Assert.fail();
+		} catch (IllegalArgumentException ex) {
+			Assert.assertEquals("@inline file can't contain its closing tag (path=/css/end.css)", ex.getMessage());
+		}
+	}
+
+	@Test
+	public void test_inlineElements() throws Exception {
+		Assert.assertEquals("<style>p{color:red}</style>", inline("<link rel=\"stylesheet\" href=\"/css/app.css\">").get(0));
+	}
+
+	@Test
+	public void test_inlineElements_skipped() throws Exception {
+		for (String href : new String[] { "/css/end.css", "/WEB-INF/private.css", "/css/../WEB-INF/private.css", "/../secret.css" }) {
+			String link = "<link rel=\"stylesheet\" href=\"" + href + "\">";
+			Assert.assertEquals(link, inline(link).get(0));
+		}
+	}
+}
@@ -0,0 +1,62 @@
+package com.appslandia.jspprocessor.impl;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Properties;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class JspProcessorManifestTest {
+
+	@Rule
+	public TemporaryFolder temp = new TemporaryFolder();
+
+	List<String> saveManifest(Properties hitCounts, JspProcessor.PageEntry... pages) throws Exception {
+		Path manifestPath = this.temp.getRoot().toPath().resolve(JspProcessor.MANIFEST_FILE_NAME);
+		new JspProcessor(this.temp.getRoot().toString()).saveManifest(new ArrayList<>(Arrays.asList(pages)), hitCounts, manifestPath);
+		return Files.readAllLines(manifestPath);
+	}
+
+	static JspProcessor.PageEntry page(String name, String layoutName) {
+		return new JspProcessor.PageEntry("/WEB-INF/jsp/" + name, name, layoutName);
+	}
+
+	@Test
+	public void test_saveManifest_layoutHitsFirst() throws Exception {
+		Properties hitCounts = new Properties();
+		hitCounts.setProperty("/WEB-INF/jsp/a.jsp", "10");
+		hitCounts.setProperty("/WEB-INF/jsp/b.jsp", "50");
+		hitCounts.setProperty("c.jsp", " 100 ");
+
+		// Layouts by hits, then pages by hits; hit counts are keyed by web path or relative path
+		Assert.assertEquals(Arrays.asList("# webPath\tlayout\thits", "/WEB-INF/jsp/c.jsp\tlayout2\t100", "/WEB-INF/jsp/b.jsp\tlayout1\t50",
+				"/WEB-INF/jsp/a.jsp\tlayout1\t10", "/WEB-INF/jsp/d.jsp\t-\t0"),
+				saveManifest(hitCounts, page("a.jsp", "layout1"), page("d.jsp", null), page("b.jsp", "layout1"), page("c.jsp", "layout2")));
+	}
+
+	@Test
+	public void test_saveManifest_summedHits() throws Exception {
+		Properties hitCounts = new Properties();
+		hitCounts.setProperty("/WEB-INF/jsp/a.jsp", "40");
+		hitCounts.setProperty("/WEB-INF/jsp/b.jsp", "40");
+		hitCounts.setProperty("/WEB-INF/jsp/c.jsp", "70");
+
+		// layout1 = 80 hits is warmed up before layout2 = 70 hits
+		Assert.assertEquals(Arrays.asList("# webPath\tlayout\thits", "/WEB-INF/jsp/a.jsp\tlayout1\t40", "/WEB-INF/jsp/b.jsp\tlayout1\t40",
+				"/WEB-INF/jsp/c.jsp\tlayout2\t70"), saveManifest(hitCounts, page("c.jsp", "layout2"), page("b.jsp", "layout1"), page("a.jsp", "layout1")));
+	}
+
+	@Test
+	public void test_saveManifest_noHits() throws Exception {
+		// Grouped by layout, then by web path
+		Assert.assertEquals(Arrays.asList("# webPath\tlayout\thits", "/WEB-INF/jsp/d.jsp\t-\t0", "/WEB-INF/jsp/a.jsp\tlayout1\t0",
+				"/WEB-INF/jsp/b.jsp\tlayout1\t0", "/WEB-INF/jsp/c.jsp\tlayout2\t0"),
+				saveManifest(new Properties(), page("c.jsp", "layout2"), page("b.jsp", "layout1"), page("d.jsp", null), page("a.jsp", "layout1")));
+	}
+}
@@ -0,0 +1,79 @@
+package com.appslandia.jspprocessor.impl;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class JspProcessorSectionsTest {
+
+	@Rule
+	public TemporaryFolder temp = new TemporaryFolder();
+
+	@Test
+	public void test_isStaticSection() {
+		Assert.assertTrue(JspProcessor.isStaticSection(Arrays.asList("<ul>", "<li><a href=\"/\">Home</a></li>", "</ul>")));
+	}
+
+	@Test
+	public void test_isStaticSection_multiLineScriptlet() {
+		Assert.assertFalse(JspProcessor.isStaticSection(Arrays.asList("<%", "String msg = \"hi\";", "%>")));
+	}
+
+	@Test
+	public void test_isStaticSection_multiLineExpression() {
+		Assert.assertFalse(JspProcessor.isStaticSection(Arrays.asList("<p>${user", ".name}</p>")));
+		Assert.assertFalse(JspProcessor.isStaticSection(Arrays.asList("<p><%= msg", "%></p>")));
+	}
+
+	@Test
+	public void test_isStaticSection_elements() {
+		Assert.assertFalse(JspProcessor.isStaticSection(Arrays.asList("<c:out value=\"x\" />")));
+		Assert.assertFalse(JspProcessor.isStaticSection(Arrays.asList("<h2>@{title}</h2>")));
+		Assert.assertFalse(JspProcessor.isStaticSection(Arrays.asList("<h2>@(title)</h2>")));
+		Assert.assertFalse(JspProcessor.isStaticSection(Arrays.asList("<!-- @nested -->")));
+	}
+
+	Path newApp() throws Exception {
+		Path appDir = TestApps.newApp(this.temp, "app");
+		Path jspPath = TestApps.jspPath(appDir);
+		TestApps.write(jspPath.resolve("__config/layout1.jsp"), "<html>", "<!-- @menu -->", "<!-- @script -->", "<!-- @doBody -->", "</html>");
+
+		for (String page : new String[] { "a.jsp", "b.jsp" }) {
+			TestApps.write(jspPath.resolve(page), "<!-- @variable __layout=layout1 -->", //
+					"<!-- @menu begin -->", "<ul><li>Home</li><li>About</li></ul>", "<!-- @menu end -->", //
+					"<!-- @script begin -->", "<%", "String msg = \"hi\";", "%>", "<p><%= msg %></p>", "<!-- @script end -->", //
+					"<p>" + page + "</p>");
+		}
+		return appDir;
+	}
+
+	@Test
+	public void test_fingerprintSections() throws Exception {
+		Path appDir = newApp();
+		Path jspPath = TestApps.jspPath(appDir);
+
+		JspProcessor processor = new JspProcessor(appDir.toString()).shareSections(true).sharedSectionMinSize(10);
+		Map<String, List<String>> shared = processor.fingerprintSections(jspPath, jspPath.resolve("__config"), StandardCharsets.UTF_8);
+
+		Assert.assertEquals(1, shared.size());
+		Assert.assertEquals(Arrays.asList("<ul><li>Home</li><li>About</li></ul>"), shared.values().iterator().next());
+	}
+
+	@Test
+	public void test_process_scriptletSectionNotShared() throws Exception {
+		Path appDir = newApp();
+		new JspProcessor(appDir.toString()).shareSections(true).sharedSectionMinSize(10).process();
+
+		String page = TestApps.read(appDir.resolve("WEB-INF/jsp/a.jsp"));
+		Assert.assertTrue(page.contains("String msg = \"hi\";"));
+		Assert.assertTrue(page.contains("<jsp:include page=\"/WEB-INF/jsp/__shared/"));
+		Assert.assertFalse(page.contains("<li>Home</li>"));
+	}
+}
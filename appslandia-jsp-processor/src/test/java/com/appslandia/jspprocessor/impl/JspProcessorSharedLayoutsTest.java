@@ -0,0 +1,87 @@
+package com.appslandia.jspprocessor.impl;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class JspProcessorSharedLayoutsTest {
+
+	@Rule
+	public TemporaryFolder temp = new TemporaryFolder();
+
+	Path newApp(String name) throws Exception {
+		Path appDir = TestApps.newApp(this.temp, name);
+		Path jspPath = TestApps.jspPath(appDir);
+		TestApps.write(jspPath.resolve("__config/layout1.jsp"), "<%@ page contentType=\"text/html; charset=UTF-8\"%>", "<!-- @variables", "siteName=My Site", "-->", //
+				"<html>", "<title>@{title}</title>", "<!-- @menu -->", "<!-- @script? -->", "<!-- @doBody -->", "</html>");
+
+		TestApps.write(jspPath.resolve("index.jsp"), "<!-- @variables", "__layout=layout1", "title=Home @{siteName}", "-->", //
+				"<!-- @menu begin -->", "<ul><li>Home</li></ul>", "<!-- @menu end -->", //
+				"<h1>@{title}</h1>");
+		return appDir;
+	}
+
+	@Test
+	public void test_variablesRenderedAsCopiedLayout() throws Exception {
+		Path appDir = newApp("app");
+		new JspProcessor(appDir.toString()).process();
+		String copied = TestApps.read(appDir.resolve("WEB-INF/jsp/index.jsp"));
+		String copiedBody = TestApps.read(appDir.resolve("WEB-INF/jsp/index_inc.jsp"));
+
+		Path sharedApp = newApp("shared");
+		new JspProcessor(sharedApp.toString()).sharedLayouts(true).process();
+		String page = TestApps.read(sharedApp.resolve("WEB-INF/jsp/index.jsp"));
+
+		int start = copied.indexOf("<title>") + "<title>".length();
+		String title = copied.substring(start, copied.indexOf("</title>"));
+
+		Assert.assertTrue(page.contains("<jsp:param name=\"title\" value=\"" + title + "\" />"));
+		Assert.assertTrue(copiedBody.contains("<h1>" + title + "</h1>"));
+		Assert.assertTrue(page.contains("<h1>" + title + "</h1>"));
+	}
+
+	@Test
+	public void test_pagePartsInOneServlet() throws Exception {
+		Path appDir = newApp("app");
+		new JspProcessor(appDir.toString()).sharedLayouts(true).process();
+
+		String page = TestApps.read(appDir.resolve("WEB-INF/jsp/index.jsp"));
+		Assert.assertTrue(page.contains("<jsp:param name=\"__page\" value=\"/WEB-INF/jsp/index.jsp\" />"));
+		Assert.assertTrue(page.contains("<jsp:param name=\"__section.menu\" value=\"/WEB-INF/jsp/index.jsp\" />"));
+		Assert.assertTrue(page.contains("<jsp:param name=\"__section.script\" value=\"\" />"));
+
+		// The layout include, then the body and the menu selected by __part
+		Assert.assertTrue(page.indexOf("<jsp:include page=\"/WEB-INF/jsp/__layouts/layout1.jsp\">") < page.indexOf("} else if (\"__body\".equals(__part)) {"));
+		Assert.assertTrue(page.indexOf("} else if (\"__body\".equals(__part)) {") < page.indexOf("<h1>"));
+		Assert.assertTrue(page.indexOf("} else if (\"menu\".equals(__part)) {") < page.indexOf("<ul><li>Home</li></ul>"));
+		Assert.assertFalse(page.contains("} else if (\"script\".equals(__part)) {"));
+
+		Assert.assertFalse(Files.exists(appDir.resolve("WEB-INF/jsp/index_inc.jsp")));
+		Assert.assertFalse(Files.exists(appDir.resolve("WEB-INF/jsp/index__menu.jsp")));
+	}
+
+	@Test
+	public void test_layoutGuardsIncludes() throws Exception {
+		Path appDir = newApp("app");
+		new JspProcessor(appDir.toString()).sharedLayouts(true).process();
+
+		String layout = TestApps.read(appDir.resolve("WEB-INF/jsp/__layouts/layout1.jsp"));
+		Assert.assertFalse(layout.contains("${param['__body']}"));
+		Assert.assertTrue(layout.contains("__includePath(request.getParameter(\"__page\"), \"__body\")"));
+		Assert.assertTrue(layout.contains("__includePath(request.getParameter(\"__section.menu\"), \"menu\")"));
+		Assert.assertTrue(layout.contains("path.startsWith(\"/WEB-INF/jsp/\")"));
+
+		// Only implicit objects and java.lang: runs on javax.servlet and jakarta.servlet containers
+		Assert.assertFalse(layout.replace("\"javax.servlet.include.servlet_path\"", "").contains("javax.servlet"));
+		Assert.assertFalse(layout.replace("\"jakarta.servlet.include.servlet_path\"", "").contains("jakarta.servlet"));
+		Assert.assertTrue(layout.contains("response.sendError(404);"));
+
+		// The guard follows the page directive
+		Assert.assertTrue(layout.indexOf("<%@ page") < layout.indexOf("<%!"));
+		Assert.assertTrue(layout.indexOf("<%!") < layout.indexOf("<html>"));
+	}
+}
@@ -0,0 +1,87 @@
+package com.appslandia.jspprocessor.impl;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class JspProcessorSplitTest {
+
+	@Rule
+	public TemporaryFolder temp = new TemporaryFolder();
+
+	final List<String> warnings = new ArrayList<>();
+
+	final JspLogger logger = new JspLogger() {
+
+		@Override
+		public void info(String message) {
+		}
+
+		@Override
+		public void warn(String message) {
+			JspProcessorSplitTest.this.warnings.add(message);
+		}
+	};
+
+	static String[] lines(String line, int count) {
+		String[] lines = new String[count];
+		for (int i = 0; i < count; i++) {
+			lines[i] = line;
+		}
+		return lines;
+	}
+
+	static String[] concat(String[]... parts) {
+		List<String> lines = new ArrayList<>();
+		for (String[] part : parts) {
+			for (String line : part) {
+				lines.add(line);
+			}
+		}
+		return lines.toArray(new String[lines.size()]);
+	}
+
+	Path newApp(String... body) throws Exception {
+		Path appDir = TestApps.newApp(this.temp, "app");
+		TestApps.write(TestApps.configPath(appDir).resolve("layout1.jsp"), "<%@ page import=\"java.util.*\"%>",
+				"<%@ taglib prefix=\"c\" uri=\"http://java.sun.com/jsp/jstl/core\"%>", "<c:set var=\"ctx\" value=\"${pageContext.request.contextPath}\" />",
+				"<% List<String> items = new ArrayList<>(); %>", "<!-- @menu -->", "<!-- @doBody -->");
+
+		TestApps.write(TestApps.jspPath(appDir).resolve("index.jsp"), concat(new String[] { "<!-- @variable __layout=layout1 -->", "<!-- @menu begin -->" },
+				lines("<li>Static item</li>", 100), new String[] { "<!-- @menu end -->" }, body));
+		return appDir;
+	}
+
+	JspProcessor newProcessor(Path appDir) {
+		return new JspProcessor(appDir.toString()).methodSizeWarn(200).splitLargeMethods(true).logger(this.logger);
+	}
+
+	@Test
+	public void test_staticRegionsSplit() throws Exception {
+		Path appDir = newApp(lines("<p>Static body</p>", 100));
+		newProcessor(appDir).process();
+
+		String page = TestApps.read(appDir.resolve("WEB-INF/jsp/index.jsp"));
+		Assert.assertTrue(page.contains("<jsp:include page=\"index__menu.jsp\" />"));
+		Assert.assertTrue(page.contains("<jsp:include page=\"index_inc.jsp\" />"));
+	}
+
+	@Test
+	public void test_dynamicBodyNotSplit() throws Exception {
+		Path appDir = newApp(concat(new String[] { "<a href=\"${ctx}/home\">Home</a>", "<% items.add(\"a\"); %>" }, lines("<p>Dynamic body</p>", 100)));
+		newProcessor(appDir).process();
+
+		// The static menu is split, the body stays in the layout's scope
+		String page = TestApps.read(appDir.resolve("WEB-INF/jsp/index.jsp"));
+		Assert.assertTrue(page.contains("<jsp:include page=\"index__menu.jsp\" />"));
+		Assert.assertTrue(page.contains("<%@ include file=\"index_inc.jsp\" %>"));
+		Assert.assertFalse(page.contains("<jsp:include page=\"index_inc.jsp\" />"));
+
+		Assert.assertTrue(this.warnings.stream().anyMatch(w -> w.startsWith("_jspService can't be split, no static body or section is left") && w.contains("jsp=index.jsp")));
+	}
+}
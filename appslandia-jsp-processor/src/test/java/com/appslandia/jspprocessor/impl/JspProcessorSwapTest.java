@@ -0,0 +1,110 @@
+package com.appslandia.jspprocessor.impl;
+
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class JspProcessorSwapTest {
+
+	@Rule
+	public TemporaryFolder temp = new TemporaryFolder();
+
+	static Path newDir(Path path, String content) throws Exception {
+		TestApps.write(path.resolve("index.jsp"), content);
+		return path;
+	}
+
+	static String readIndex(Path dir) throws Exception {
+		return TestApps.read(dir.resolve("index.jsp"));
+	}
+
+	@Test
+	public void test_swapDirs_noTarget() throws Exception {
+		Path root = this.temp.getRoot().toPath();
+		JspProcessor.swapDirs(newDir(root.resolve("jsp.staging"), "new"), root.resolve("jsp"), root.resolve("jsp.prev"));
+
+		Assert.assertEquals("new", readIndex(root.resolve("jsp")));
+		Assert.assertFalse(Files.exists(root.resolve("jsp.staging")));
+		Assert.assertFalse(Files.exists(root.resolve("jsp.prev")));
+	}
+
+	@Test
+	public void test_swapDirs() throws Exception {
+		Path root = this.temp.getRoot().toPath();
+		newDir(root.resolve("jsp"), "current");
+		newDir(root.resolve("jsp.prev"), "older");
+
+		JspProcessor.swapDirs(newDir(root.resolve("jsp.staging"), "new"), root.resolve("jsp"), root.resolve("jsp.prev"));
+
+		Assert.assertEquals("new", readIndex(root.resolve("jsp")));
+		Assert.assertEquals("current", readIndex(root.resolve("jsp.prev")));
+		Assert.assertFalse(Files.exists(root.resolve("jsp.staging")));
+	}
+
+	@Test
+	public void test_swapDirs_restoredOnFailure() throws Exception {
+		Path root = this.temp.getRoot().toPath();
+		newDir(root.resolve("jsp"), "current");
+		try {
+			// Missing staging -> second rename fails
+			JspProcessor.swapDirs(root.resolve("jsp.staging"), root.resolve("jsp"), root.resolve("jsp.prev"));
+			Assert.fail();
+		} catch (NoSuchFileException ex) {
+		}
+		Assert.assertEquals("current", readIndex(root.resolve("jsp")));
+		Assert.assertFalse(Files.exists(root.resolve("jsp.prev")));
+	}
+
+	Path newApp(String body) throws Exception {
+		Path appDir = TestApps.newApp(this.temp, "app");
+		TestApps.write(TestApps.jspPath(appDir).resolve("index.jsp"), body);
+		return appDir;
+	}
+
+	@Test
+	public void test_process_previousDeleted() throws Exception {
+		Path appDir = newApp("<p>v1</p>");
+		new JspProcessor(appDir.toString()).process();
+		new JspProcessor(appDir.toString()).process();
+
+		Assert.assertTrue(Files.exists(appDir.resolve("WEB-INF/jsp/index.jsp")));
+		Assert.assertFalse(Files.exists(appDir.resolve("WEB-INF/jsp.prev")));
+		Assert.assertFalse(Files.exists(appDir.resolve("WEB-INF/jsp.staging")));
+	}
+
+	@Test
+	public void test_process_keepPrevious_rollback() throws Exception {
+		Path appDir = newApp("<p>v1</p>");
+		new JspProcessor(appDir.toString()).keepPrevious(true).process();
+
+		TestApps.write(TestApps.jspPath(appDir).resolve("index.jsp"), "<p>v2</p>");
+		new JspProcessor(appDir.toString()).keepPrevious(true).process();
+		Assert.assertTrue(readIndex(appDir.resolve("WEB-INF/jsp")).endsWith("<p>v2</p>"));
+		Assert.assertTrue(readIndex(appDir.resolve("WEB-INF/jsp.prev")).endsWith("<p>v1</p>"));
+
+		new JspProcessor(appDir.toString()).rollback();
+		Assert.assertTrue(readIndex(appDir.resolve("WEB-INF/jsp")).endsWith("<p>v1</p>"));
+		Assert.assertTrue(readIndex(appDir.resolve("WEB-INF/jsp.prev")).endsWith("<p>v2</p>"));
+		Assert.assertFalse(Files.exists(appDir.resolve("WEB-INF/jsp.staging")));
+	}
+
+	@Test
+	public void test_process_failureRemovesStaging() throws Exception {
+		Path appDir = newApp("<p>v1</p>");
+		new JspProcessor(appDir.toString()).process();
+
+		TestApps.write(TestApps.jspPath(appDir).resolve("index.jsp"), "<!-- @inline app.css -->");
+		try {
+			new JspProcessor(appDir.toString()).process();
+			Assert.fail();
+		} catch (IllegalArgumentException ex) {
+		}
+		Assert.assertTrue(readIndex(appDir.resolve("WEB-INF/jsp")).endsWith("<p>v1</p>"));
+		Assert.assertFalse(Files.exists(appDir.resolve("WEB-INF/jsp.staging")));
+	}
+}
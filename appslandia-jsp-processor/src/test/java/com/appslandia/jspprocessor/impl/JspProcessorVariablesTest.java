@@ -0,0 +1,61 @@
+package com.appslandia.jspprocessor.impl;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class JspProcessorVariablesTest {
+
+	@Rule
+	public TemporaryFolder temp = new TemporaryFolder();
+
+	List<String> replace(Map<String, String> variables, String... lines) throws Exception {
+		List<String> source = new ArrayList<>(Arrays.asList(lines));
+		new JspProcessor(this.temp.getRoot().toString()).replaceVariables(source, variables);
+		return source;
+	}
+
+	@Test
+	public void test_replaceVariables() throws Exception {
+		Map<String, String> variables = new HashMap<>();
+		variables.put("title", "Home");
+		variables.put("price", "$5 \\ each");
+
+		Assert.assertEquals(Arrays.asList("<h1>Home</h1>", "<p>Home</p>", "<p>$5 \\ each</p>", "<p>no holder</p>"),
+				replace(variables, "<h1>@{title}</h1>", "<p>@( Title )</p>", "<p>@{ PRICE }</p>", "<p>no holder</p>"));
+	}
+
+	@Test
+	public void test_replaceVariables_unknown() throws Exception {
+		Map<String, String> variables = new HashMap<>();
+		variables.put("title", "Home");
+
+		Assert.assertEquals(Arrays.asList("<p>@{user} @(user) Home</p>"), replace(variables, "<p>@{user} @(user) @{title}</p>"));
+	}
+
+	@Test
+	public void test_process_valueReferencingVariable() throws Exception {
+		Path appDir = TestApps.newApp(this.temp, "app");
+		Path jspPath = TestApps.jspPath(appDir);
+
+		TestApps.write(jspPath.resolve("__config/layout1.jsp"), "<!-- @variables", "siteName=My Site", "-->", "<title>@{title} - @{siteName}</title>", "<!-- @doBody -->");
+		TestApps.write(jspPath.resolve("index.jsp"), "<!-- @variables", "__layout=layout1", "title=Home @{siteName}", "-->", "<p>Hello @{title}</p>");
+
+		new JspProcessor(appDir.toString()).process();
+
+		// Values aren't expanded when the variable they reference is replaced before them
+		String layout = TestApps.read(appDir.resolve("WEB-INF/jsp/index.jsp"));
+		String body = TestApps.read(appDir.resolve("WEB-INF/jsp/index_inc.jsp"));
+
+		Assert.assertTrue(layout.contains("<title>Home @{siteName} - My Site</title>"));
+		Assert.assertTrue(body.contains("<p>Hello Home @{siteName}</p>"));
+	}
+}
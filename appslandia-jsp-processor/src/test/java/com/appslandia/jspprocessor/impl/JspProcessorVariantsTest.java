@@ -0,0 +1,83 @@
+package com.appslandia.jspprocessor.impl;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Properties;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class JspProcessorVariantsTest {
+
+	@Rule
+	public TemporaryFolder temp = new TemporaryFolder();
+
+	Path newApp() throws Exception {
+		Path appDir = TestApps.newApp(this.temp, "app");
+		Path jspPath = TestApps.jspPath(appDir);
+		TestApps.write(jspPath.resolve("__config/layout1.jsp"), "<!-- @variables", "brand=Layout", "color=red", "footer=Layout footer", "-->", //
+				"<p>@{brand} @{color} @{footer}</p>", "<!-- @doBody -->");
+		TestApps.write(jspPath.resolve("__config/brandA.properties"), "brand=Brand A");
+
+		TestApps.write(jspPath.resolve("index.jsp"), "<!-- @variables", "__layout=layout1", "brand=Page", "color=blue", "-->", "<h1>@{brand}</h1>");
+		return appDir;
+	}
+
+	@Test
+	public void test_overlayPrecedence() throws Exception {
+		Path appDir = newApp();
+		new JspProcessor(appDir.toString()).variant(new JspVariant("brandA", "brandA.properties", null)).variant(new JspVariant("plain", null, "jsp_plain"))
+				.process();
+
+		// Overlay > page > layout
+		Assert.assertTrue(TestApps.read(appDir.resolve("WEB-INF/jsp_brandA/index.jsp")).contains("<p>Brand A blue Layout footer</p>"));
+		Assert.assertTrue(TestApps.read(appDir.resolve("WEB-INF/jsp_brandA/index_inc.jsp")).contains("<h1>Brand A</h1>"));
+
+		// The overlay of a variant doesn't leak into another
+		Assert.assertTrue(TestApps.read(appDir.resolve("WEB-INF/jsp_plain/index.jsp")).contains("<p>Page blue Layout footer</p>"));
+		Assert.assertTrue(TestApps.read(appDir.resolve("WEB-INF/jsp_plain/index_inc.jsp")).contains("<h1>Page</h1>"));
+		Assert.assertFalse(Files.exists(appDir.resolve("WEB-INF/jsp")));
+	}
+
+	@Test
+	public void test_assertNames() {
+		JspVariant.assertNames(Arrays.asList(new JspVariant("brand_A", null, null), new JspVariant("brand-b", null, null)));
+
+		for (String name : new String[] { null, "", "a,b", "a.b", "a b" }) {
+			try {
+				JspVariant.assertNames(Arrays.asList(new JspVariant(name, null, null)));
+				Assert.fail();
+			} catch (IllegalArgumentException ex) {
+				Assert.assertEquals("Variant name is invalid (variant=" + name + ")", ex.getMessage());
+			}
+		}
+	}
+
+	@Test
+	public void test_assertNames_duplicated() {
+		try {
+			JspVariant.assertNames(Arrays.asList(new JspVariant("brandA", null, null), new JspVariant("brandA", null, null)));
+			Assert.fail();
+		} catch (IllegalArgumentException ex) {
+			Assert.assertEquals("Variant name is duplicated (variant=brandA)", ex.getMessage());
+		}
+	}
+
+	@Test
+	public void test_process_invalidName() throws Exception {
+		Path appDir = newApp();
+		Properties options = new Properties();
+		options.setProperty("webContentDir", appDir.toString());
+		options.setProperty("variants", "brand.A");
+		try {
+			JspProcessorCli.newProcessor(options).process();
+			Assert.fail();
+		} catch (IllegalArgumentException ex) {
+			Assert.assertEquals("Variant name is invalid (variant=brand.A)", ex.getMessage());
+		}
+		Assert.assertFalse(Files.exists(appDir.resolve("WEB-INF/jsp_brand.A")));
+	}
+}
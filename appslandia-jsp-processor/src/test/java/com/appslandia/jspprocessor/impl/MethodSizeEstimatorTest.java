@@ -0,0 +1,76 @@
+package com.appslandia.jspprocessor.impl;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class MethodSizeEstimatorTest {
+
+	static List<String> staticLines(int count) {
+		List<String> source = new ArrayList<>();
+		for (int i = 0; i < count; i++) {
+			source.add("<div class=\"row\">Line " + i + "</div>");
+		}
+		return source;
+	}
+
+	@Test
+	public void test_estimate_textLines() {
+		Assert.assertEquals(3 * MethodSizeEstimator.TEXT_WRITE_SIZE, MethodSizeEstimator.estimate(Arrays.asList("<html>", "<body>", "</body>")));
+	}
+
+	@Test
+	public void test_estimate_blankLines() {
+		Assert.assertEquals(2 * MethodSizeEstimator.TEXT_WRITE_SIZE, MethodSizeEstimator.estimate(Arrays.asList("<html>", "", "  \t", "</html>")));
+	}
+
+	@Test
+	public void test_estimate_largeStaticLayout() {
+		// mappedfile=true: one out.write per line
+		int size = MethodSizeEstimator.estimateService(staticLines(1000));
+		Assert.assertTrue(size > MethodSizeEstimator.HUGE_METHOD_LIMIT);
+		Assert.assertEquals(MethodSizeEstimator.SERVICE_OVERHEAD + 1000 * MethodSizeEstimator.TEXT_WRITE_SIZE, size);
+	}
+
+	@Test
+	public void test_estimate_notMappedFile() {
+		Assert.assertEquals(MethodSizeEstimator.TEXT_WRITE_SIZE, MethodSizeEstimator.estimate(staticLines(1000), false));
+	}
+
+	@Test
+	public void test_estimate_textAroundElements() {
+		// <b>, ${name}, </b>
+		int size = MethodSizeEstimator.estimate("<b>${name}</b>");
+		Assert.assertEquals(2 * MethodSizeEstimator.TEXT_WRITE_SIZE + MethodSizeEstimator.EXPRESSION_SIZE, size);
+	}
+
+	@Test
+	public void test_estimate_multiLineText() {
+		// Text block of 3 lines between two expressions
+		int size = MethodSizeEstimator.estimate("${a}\nline1\nline2\nline3\n${b}");
+		Assert.assertEquals(3 * MethodSizeEstimator.TEXT_WRITE_SIZE + 2 * MethodSizeEstimator.EXPRESSION_SIZE, size);
+
+		size = MethodSizeEstimator.estimate("${a}\nline1\nline2\nline3\n${b}", false);
+		Assert.assertEquals(MethodSizeEstimator.TEXT_WRITE_SIZE + 2 * MethodSizeEstimator.EXPRESSION_SIZE, size);
+	}
+
+	@Test
+	public void test_estimate_ignoredElements() {
+		Assert.assertEquals(0, MethodSizeEstimator.estimate("<%-- comment --%>\n<%@ page session=\"false\" %>\n<%! int x; %>"));
+	}
+
+	@Test
+	public void test_estimate_scriptletsAndActions() {
+		// Scriptlet code: about 1 byte per 2 chars
+		String scriptlet = "<% int x = 1234567; %>";
+		Assert.assertEquals((scriptlet.length() - 4) / 2, MethodSizeEstimator.estimate(scriptlet));
+
+		// Tag name is the element, attributes are counted as text
+		Assert.assertEquals(MethodSizeEstimator.STANDARD_ACTION_SIZE + MethodSizeEstimator.TEXT_WRITE_SIZE,
+				MethodSizeEstimator.estimate("<jsp:include page=\"a.jsp\" />"));
+		Assert.assertEquals(MethodSizeEstimator.CUSTOM_TAG_SIZE + MethodSizeEstimator.TEXT_WRITE_SIZE, MethodSizeEstimator.estimate("<c:out value=\"x\" />"));
+	}
+}
@@ -0,0 +1,40 @@
+package com.appslandia.jspprocessor.impl;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Web applications for processor tests: {appDir}/WEB-INF/__jsp with an empty __config directory.
+ */
+final class TestApps {
+
+	private TestApps() {
+	}
+
+	static Path newApp(TemporaryFolder temp, String name) throws Exception {
+		Path appDir = temp.newFolder(name).toPath();
+		Files.createDirectories(jspPath(appDir).resolve("__config"));
+		return appDir;
+	}
+
+	static Path jspPath(Path appDir) {
+		return appDir.resolve("WEB-INF/__jsp");
+	}
+
+	static Path configPath(Path appDir) {
+		return jspPath(appDir).resolve("__config");
+	}
+
+	static Path write(Path path, String... lines) throws Exception {
+		Files.createDirectories(path.getParent());
+		Files.write(path, String.join("\n", lines).getBytes(StandardCharsets.UTF_8));
+		return path;
+	}
+
+	static String read(Path path) throws Exception {
+		return new String(Files.readAllBytes(path), StandardCharsets.UTF_8);
+	}
+}
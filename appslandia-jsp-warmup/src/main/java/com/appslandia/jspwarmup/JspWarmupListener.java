@@ -0,0 +1,366 @@
+// The MIT License (MIT)
+// Copyright © 2015 AppsLandia. All rights reserved.
+
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+
+// The above copyright notice and this permission notice shall be included in all
+// copies or substantial portions of the Software.
+
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+
+package com.appslandia.jspwarmup;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.servlet.DispatcherType;
+import javax.servlet.RequestDispatcher;
+import javax.servlet.ServletContext;
+import javax.servlet.ServletContextEvent;
+import javax.servlet.ServletContextListener;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * Preloads the generated JSP pages listed in the manifest files written by the JSP processor when the manifest option is on.
+ *
+ * <p>
+ * Pages are dispatched in manifest order on a bounded thread pool before the context finishes initializing. By default each page is requested with
+ * jsp_precompile=true, so the container compiles and loads it without running it. With jspWarmup.execute=true, pages are also executed once with a synthetic
+ * request, outside the filter chain; only enable it for pages without side effects. Register the listener in web.xml; supported context parameters:
+ * </p>
+ *
+ * <p>
+ * Pages are dispatched with a synthetic request that only Tomcat (and TomEE) dispatchers accept: other containers expect their own request implementation
+ * (Jetty fails with a NullPointerException), so on them the warm-up is skipped and logged.
+ * </p>
+ *
+ * <pre>
+ * jspWarmup.manifests:      comma separated manifest paths (default /WEB-INF/jsp/__manifest.txt)
+ * jspWarmup.threads:        warm-up threads (default 2)
+ * jspWarmup.timeoutSeconds: maximum time to wait for the warm-up (default 60)
+ * jspWarmup.maxPages:       maximum pages to warm up, 0 for all (default 0)
+ * jspWarmup.execute:        execute pages instead of precompiling them (default false)
+ * </pre>
+ *
+ * @author <a href="mailto:haducloc13@gmail.com">Loc Ha</a>
+ *
+ */
+public class JspWarmupListener implements ServletContextListener {
+
+	public static final String ATTRIBUTE_WARMED_UP = "com.appslandia.jspwarmup.warmedUp";
+
+	public static final String DEFAULT_MANIFEST = "/WEB-INF/jsp/__manifest.txt";
+	public static final String PRECOMPILE_QUERY = "jsp_precompile=true";
+
+	@Override
+	public void contextInitialized(ServletContextEvent sce) {
+		ServletContext sc = sce.getServletContext();
+		if (!isSupported(sc)) {
+			sc.setAttribute(ATTRIBUTE_WARMED_UP, Boolean.TRUE);
+			sc.log("JSP warm-up skipped, only Tomcat is supported (serverInfo=" + sc.getServerInfo() + ")");
+			return;
+		}
+
+		String manifests = trimToDefault(sc.getInitParameter("jspWarmup.manifests"), DEFAULT_MANIFEST);
+		int threads = Integer.parseInt(trimToDefault(sc.getInitParameter("jspWarmup.threads"), "2"));
+		int timeoutSeconds = Integer.parseInt(trimToDefault(sc.getInitParameter("jspWarmup.timeoutSeconds"), "60"));
+		int maxPages = Integer.parseInt(trimToDefault(sc.getInitParameter("jspWarmup.maxPages"), "0"));
+		boolean execute = Boolean.parseBoolean(trimToDefault(sc.getInitParameter("jspWarmup.execute"), "false"));
+
+		List<String> pages = new ArrayList<>();
+		for (String manifest : manifests.split(",")) {
+			manifest = manifest.trim();
+			if (!manifest.isEmpty()) {
+				loadManifest(sc, manifest, pages);
+			}
+		}
+		if ((maxPages > 0) && (pages.size() > maxPages)) {
+			pages = pages.subList(0, maxPages);
+		}
+
+		long start = System.currentTimeMillis();
+		AtomicInteger failed = new AtomicInteger();
+		AtomicInteger threadIdx = new AtomicInteger();
+
+		ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, threads), r -> {
+			Thread t = new Thread(r, "jsp-warmup-" + threadIdx.incrementAndGet());
+			t.setDaemon(true);
+			return t;
+		});
+		for (String page : pages) {
+			executor.execute(() -> {
+				if (!warmUp(sc, page, execute)) {
+					failed.incrementAndGet();
+				}
+			});
+		}
+		executor.shutdown();
+
+		boolean completed = false;
+		try {
+			completed = executor.awaitTermination(timeoutSeconds, TimeUnit.SECONDS);
+		} catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+		}
+		if (!completed) {
+			executor.shutdownNow();
+		}
+
+		sc.setAttribute(ATTRIBUTE_WARMED_UP, Boolean.TRUE);
+		sc.log("JSP warm-up " + (completed ? "completed" : "timed out") + " (pages=" + pages.size() + ", failed=" + failed.get() + ", execute=" + execute
+				+ ", timeMs=" + (System.currentTimeMillis() - start) + ")");
+	}
+
+	@Override
+	public void contextDestroyed(ServletContextEvent sce) {
+	}
+
+	static boolean isSupported(ServletContext sc) {
+		String serverInfo = sc.getServerInfo();
+		return (serverInfo != null) && serverInfo.contains("Tomcat");
+	}
+
+	static void loadManifest(ServletContext sc, String manifest, List<String> pages) {
+		InputStream is = sc.getResourceAsStream(manifest);
+		if (is == null) {
+			sc.log("JSP warm-up manifest not found (manifest=" + manifest + ")");
+			return;
+		}
+		try (BufferedReader br = new BufferedReader(new InputStreamReader(is, StandardCharsets.UTF_8))) {
+			String line;
+			while ((line = br.readLine()) != null) {
+				line = line.trim();
+				if (line.isEmpty() || line.startsWith("#")) {
+					continue;
+				}
+				int idx = line.indexOf('\t');
+				pages.add((idx < 0) ? line : line.substring(0, idx));
+			}
+		} catch (IOException ex) {
+			sc.log("Couldn't load JSP warm-up manifest (manifest=" + manifest + ")", ex);
+		}
+	}
+
+	static boolean warmUp(ServletContext sc, String page, boolean execute) {
+		String queryString = execute ? null : PRECOMPILE_QUERY;
+		RequestDispatcher dispatcher = sc.getRequestDispatcher(execute ? page : page + "?" + queryString);
+		if (dispatcher == null) {
+			sc.log("JSP warm-up failed, no dispatcher (page=" + page + ")");
+			return false;
+		}
+		try {
+			dispatcher.include(newRequest(sc, page, queryString), newResponse());
+			return true;
+
+		} catch (Exception ex) {
+			// Precompile: compile errors; execute: also errors of pages run without a real request/model
+			sc.log("JSP warm-up failed (page=" + page + ", execute=" + execute + ")", ex);
+			return false;
+		}
+	}
+
+	static String trimToDefault(String value, String defaultValue) {
+		if (value == null) {
+			return defaultValue;
+		}
+		value = value.trim();
+		return value.isEmpty() ? defaultValue : value;
+	}
+
+	static HttpServletRequest newRequest(ServletContext sc, String page, String queryString) {
+		Map<String, Object> attributes = new ConcurrentHashMap<>();
+
+		return (HttpServletRequest) Proxy.newProxyInstance(JspWarmupListener.class.getClassLoader(), new Class<?>[] { HttpServletRequest.class }, new InvocationHandler() {
+
+			@Override
+			public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+				switch (method.getName()) {
+				case "getAttribute":
+					return attributes.get(args[0]);
+				case "setAttribute":
+					if (args[1] != null) {
+						attributes.put((String) args[0], args[1]);
+					} else {
+						attributes.remove(args[0]);
+					}
+					return null;
+				case "removeAttribute":
+					attributes.remove(args[0]);
+					return null;
+				case "getAttributeNames":
+					return Collections.enumeration(new ArrayList<>(attributes.keySet()));
+				case "getServletContext":
+					return sc;
+				case "getContextPath":
+					return sc.getContextPath();
+				case "getRequestURI":
+					return sc.getContextPath() + page;
+				case "getRequestURL":
+					return new StringBuffer("http://localhost").append(sc.getContextPath()).append(page);
+				case "getServletPath":
+					return page;
+				case "getQueryString":
+					return queryString;
+				case "getParameter":
+					return ((queryString != null) && "jsp_precompile".equals(args[0])) ? "true" : null;
+				case "getMethod":
+					return "GET";
+				case "getProtocol":
+					return "HTTP/1.1";
+				case "getScheme":
+					return "http";
+				case "getServerName":
+				case "getLocalName":
+				case "getRemoteHost":
+					return "localhost";
+				case "getRemoteAddr":
+				case "getLocalAddr":
+					return "127.0.0.1";
+				case "getServerPort":
+				case "getLocalPort":
+					return 80;
+				case "getCharacterEncoding":
+					return StandardCharsets.UTF_8.name();
+				case "getLocale":
+					return Locale.getDefault();
+				case "getLocales":
+					return Collections.enumeration(Collections.singletonList(Locale.getDefault()));
+				case "getDispatcherType":
+					return DispatcherType.REQUEST;
+				case "hashCode":
+					return System.identityHashCode(proxy);
+				case "equals":
+					return proxy == args[0];
+				case "toString":
+					return "JspWarmupRequest[" + page + "]";
+				default:
+					return defaultValue(method.getReturnType());
+				}
+			}
+		});
+	}
+
+	static HttpServletResponse newResponse() {
+		PrintWriter writer = new PrintWriter(new NullWriter());
+		ServletOutputStream os = new NullOutputStream();
+
+		return (HttpServletResponse) Proxy.newProxyInstance(JspWarmupListener.class.getClassLoader(), new Class<?>[] { HttpServletResponse.class },
+				new InvocationHandler() {
+
+					@Override
+					public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+						switch (method.getName()) {
+						case "getWriter":
+							return writer;
+						case "getOutputStream":
+							return os;
+						case "getCharacterEncoding":
+							return StandardCharsets.UTF_8.name();
+						case "getLocale":
+							return Locale.getDefault();
+						case "getBufferSize":
+							return 8192;
+						case "encodeURL":
+						case "encodeRedirectURL":
+						case "encodeUrl":
+						case "encodeRedirectUrl":
+							return args[0];
+						case "hashCode":
+							return System.identityHashCode(proxy);
+						case "equals":
+							return proxy == args[0];
+						case "toString":
+							return "JspWarmupResponse";
+						default:
+							return defaultValue(method.getReturnType());
+						}
+					}
+				});
+	}
+
+	static Object defaultValue(Class<?> type) {
+		if (type == boolean.class) {
+			return false;
+		}
+		if (type == int.class) {
+			return 0;
+		}
+		if (type == long.class) {
+			return 0L;
+		}
+		if (type == Enumeration.class) {
+			return Collections.emptyEnumeration();
+		}
+		if (type == Map.class) {
+			return Collections.emptyMap();
+		}
+		if (type == Collection.class) {
+			return Collections.emptyList();
+		}
+		return null;
+	}
+
+	static class NullWriter extends Writer {
+
+		@Override
+		public void write(char[] cbuf, int off, int len) {
+		}
+
+		@Override
+		public void flush() {
+		}
+
+		@Override
+		public void close() {
+		}
+	}
+
+	static class NullOutputStream extends ServletOutputStream {
+
+		@Override
+		public void write(int b) {
+		}
+
+		@Override
+		public boolean isReady() {
+			return true;
+		}
+
+		@Override
+		public void setWriteListener(WriteListener writeListener) {
+		}
+	}
+}
@@ -0,0 +1,105 @@
+package com.appslandia.jspwarmup;
+
+import java.io.ByteArrayInputStream;
+import java.lang.reflect.Proxy;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.servlet.RequestDispatcher;
+import javax.servlet.ServletContext;
+import javax.servlet.ServletContextEvent;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class JspWarmupListenerTest {
+
+	final List<String> paths = new ArrayList<>();
+	final List<String> queryStrings = new ArrayList<>();
+	final List<String> logs = new ArrayList<>();
+	final List<Throwable> causes = new ArrayList<>();
+	final Map<String, Object> attributes = new HashMap<>();
+
+	ServletContext newContext(boolean fail) {
+		return newContext(fail, "Apache Tomcat/9.0.50");
+	}
+
+	ServletContext newContext(boolean fail, String serverInfo) {
+		return (ServletContext) Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[] { ServletContext.class }, (proxy, method, args) -> {
+			switch (method.getName()) {
+			case "getRequestDispatcher":
+				this.paths.add((String) args[0]);
+				return (RequestDispatcher) Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[] { RequestDispatcher.class }, (p, m, a) -> {
+					this.queryStrings.add(((HttpServletRequest) a[0]).getQueryString());
+					if (fail) {
+						throw new ServletException("Compile error");
+					}
+					return null;
+				});
+			case "log":
+				this.logs.add((String) args[0]);
+				if (args.length > 1) {
+					this.causes.add((Throwable) args[1]);
+				}
+				return null;
+			case "getContextPath":
+				return "";
+			case "getServerInfo":
+				return serverInfo;
+			case "getResourceAsStream":
+				return new ByteArrayInputStream("# layout1\n/WEB-INF/jsp/login.jsp\t2\n".getBytes(StandardCharsets.UTF_8));
+			case "setAttribute":
+				this.attributes.put((String) args[0], args[1]);
+				return null;
+			default:
+				return null;
+			}
+		});
+	}
+
+	@Test
+	public void test_warmUp_precompile() {
+		Assert.assertTrue(JspWarmupListener.warmUp(newContext(false), "/WEB-INF/jsp/login.jsp", false));
+
+		Assert.assertEquals("/WEB-INF/jsp/login.jsp?jsp_precompile=true", this.paths.get(0));
+		Assert.assertEquals("jsp_precompile=true", this.queryStrings.get(0));
+	}
+
+	@Test
+	public void test_warmUp_execute() {
+		Assert.assertTrue(JspWarmupListener.warmUp(newContext(false), "/WEB-INF/jsp/login.jsp", true));
+
+		Assert.assertEquals("/WEB-INF/jsp/login.jsp", this.paths.get(0));
+		Assert.assertNull(this.queryStrings.get(0));
+	}
+
+	@Test
+	public void test_warmUp_failureLogged() {
+		Assert.assertFalse(JspWarmupListener.warmUp(newContext(true), "/WEB-INF/jsp/login.jsp", false));
+
+		Assert.assertTrue(this.logs.get(0).contains("page=/WEB-INF/jsp/login.jsp"));
+		Assert.assertEquals("Compile error", this.causes.get(0).getMessage());
+	}
+
+	@Test
+	public void test_contextInitialized() {
+		new JspWarmupListener().contextInitialized(new ServletContextEvent(newContext(false)));
+
+		Assert.assertEquals("/WEB-INF/jsp/login.jsp?jsp_precompile=true", this.paths.get(0));
+		Assert.assertEquals(Boolean.TRUE, this.attributes.get("com.appslandia.jspwarmup.warmedUp"));
+	}
+
+	@Test
+	public void test_contextInitialized_unsupportedContainer() {
+		new JspWarmupListener().contextInitialized(new ServletContextEvent(newContext(false, "jetty/9.4.43")));
+
+		Assert.assertTrue(this.paths.isEmpty());
+		Assert.assertEquals(Boolean.TRUE, this.attributes.get(JspWarmupListener.ATTRIBUTE_WARMED_UP));
+		Assert.assertEquals("JSP warm-up skipped, only Tomcat is supported (serverInfo=jetty/9.4.43)", this.logs.get(0));
+	}
+}